@@ -0,0 +1,91 @@
+package chessml.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import chessml.GameStore;
+import chessml.GlickoSystemStandalone;
+import chessml.PlayerIndex;
+import chessml.SyntheticGames;
+
+/**
+ * Synthetic training and test games shared by the benchmarks, generated once per
+ * trial. The size is set with -p players=.. -p months=.. -p gamesPerPlayer=..
+ * <br />
+ * Training is months 1..months, the test set is one more month of the same players
+ * (different seed), loaded through the training player index as in the competition.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+@State(Scope.Benchmark)
+public class Dataset
+{
+	@Param({"10000"})
+	public int players;
+
+	@Param({"60"})
+	public int months;
+
+	// per player per month
+	@Param({"2"})
+	public double gamesPerPlayer;
+
+	@Param({"1"})
+	public long seed;
+
+	public GameStore training;
+	public GameStore test;
+	public double [] predictions;
+
+	// scratch directory with the training set as csv and binary
+	public File directory;
+	public File csvFile;
+	public File binaryFile;
+	public File outputFile;
+
+	@Setup(Level.Trial)
+	public void setup()
+		throws IOException
+	{
+		GlickoSystemStandalone.PRINT_DEBUG = false;
+
+		SyntheticGames games = new SyntheticGames(players, months, gamesPerPlayer, seed);
+		training = games.build(new PlayerIndex());
+		test = new SyntheticGames(players, 1, gamesPerPlayer, seed+1).build(training.getPlayerIndex());
+		predictions = new double[test.size()];
+		for (int i = 0; i < predictions.length; i++) {
+			predictions[i] = (i % 1000) / 1000.0;
+		}
+
+		directory = File.createTempFile("chessml-bench", "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		csvFile = new File(directory, "training.csv");
+		binaryFile = new File(directory, "training.bin");
+		outputFile = new File(directory, "submission.csv");
+		games.writeCsv(csvFile, true);
+		games.writeBinary(binaryFile);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		File [] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		directory.delete();
+	}
+}
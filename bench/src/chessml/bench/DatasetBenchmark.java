@@ -0,0 +1,124 @@
+package chessml.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chessml.GameStore;
+import chessml.GlickoSystemStandalone;
+import chessml.PlayerIndex;
+
+/**
+ * Loading, indexing, scanning and saving game logs.
+ * <br />
+ * buildStore is the month and (month, player) indexing that replaced the per month
+ * and per user lists (getGamesByMonth / getGamesByUser), scanByMonth and scanByPlayer
+ * walk those indexes the way the rating updates do.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatasetBenchmark
+{
+	// the training games as read from a file, ids not indexes
+	private int [] month;
+	private int [] whiteId;
+	private int [] blackId;
+	private double [] score;
+
+	@Setup
+	public void setup(Dataset data)
+	{
+		GameStore store = data.training;
+		int n = store.size();
+		month = new int[n];
+		whiteId = new int[n];
+		blackId = new int[n];
+		score = new double[n];
+		for (int i = 0; i < n; i++) {
+			month[i] = store.getMonth(i);
+			whiteId[i] = store.getWhiteId(i);
+			blackId[i] = store.getBlackId(i);
+			score[i] = store.getScore(i);
+		}
+	}
+
+	@Benchmark
+	public GameStore loadCsv(Dataset data)
+		throws IOException
+	{
+		return GlickoSystemStandalone.loadDataset(data.csvFile);
+	}
+
+	@Benchmark
+	public GameStore loadBinary(Dataset data)
+		throws IOException
+	{
+		return GlickoSystemStandalone.loadDataset(data.binaryFile);
+	}
+
+	@Benchmark
+	public GameStore buildStore()
+	{
+		GameStore.Builder builder = new GameStore.Builder(new PlayerIndex(), month.length);
+		for (int i = 0; i < month.length; i++) {
+			builder.game(month[i], whiteId[i], blackId[i], score[i]);
+		}
+		return builder.build();
+	}
+
+	@Benchmark
+	public double scanByMonth(Dataset data)
+	{
+		GameStore store = data.training;
+		double sum = 0.0;
+		for (int m = 0; m < store.numMonths(); m++) {
+			for (int game = store.monthStart(m); game < store.monthEnd(m); game++) {
+				sum += store.getScore(game);
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double scanByPlayer(Dataset data)
+	{
+		GameStore store = data.training;
+		double sum = 0.0;
+		for (int m = 0; m < store.numMonths(); m++) {
+			for (int active = store.activeStart(m); active < store.activeEnd(m); active++) {
+				int player = store.getActivePlayer(active);
+				for (int p = store.playerGamesStart(active); p < store.playerGamesEnd(active); p++) {
+					int game = store.getPlayerGame(p);
+					sum += (store.getWhite(game) == player) ? store.getScore(game) : 1.0 - store.getScore(game);
+				}
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long saveDataset(Dataset data)
+		throws IOException
+	{
+		GlickoSystemStandalone.saveDataset(data.test, data.predictions, data.outputFile);
+		return data.outputFile.length();
+	}
+}
@@ -0,0 +1,82 @@
+package chessml.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chessml.GlickoKernel;
+import chessml.GlickoSystemStandalone;
+
+/**
+ * The rating period update of one player against a number of opponents: the original
+ * calculateNewRating and calculateNewRD and the fused {@link GlickoKernel}.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark
+{
+	@Param({"1", "4", "16", "64"})
+	public int opponents;
+
+	private final GlickoSystemStandalone system = GlickoSystemStandalone.getInstanceNoBatchAndNoUpdateDuringTest();
+	private double rating;
+	private double rd;
+	private double [] opponentRatings;
+	private double [] opponentRDs;
+	private double [] outcomes;
+	private final double [] out = new double[2];
+
+	@Setup
+	public void setup()
+	{
+		Random r = new Random(1);
+		rating = 1500 + 200*r.nextGaussian();
+		rd = 50 + 300*r.nextDouble();
+		opponentRatings = new double[opponents];
+		opponentRDs = new double[opponents];
+		outcomes = new double[opponents];
+		for (int i = 0; i < opponents; i++) {
+			opponentRatings[i] = 1500 + 200*r.nextGaussian();
+			opponentRDs[i] = 50 + 300*r.nextDouble();
+			outcomes[i] = r.nextInt(3) / 2.0;
+		}
+	}
+
+	@Benchmark
+	public double calculateNewRating()
+	{
+		return GlickoSystemStandalone.calculateNewRating(rating, rd, opponentRatings, opponentRDs, outcomes);
+	}
+
+	@Benchmark
+	public double calculateNewRD()
+	{
+		return system.calculateNewRD(rating, rd, opponentRatings, opponentRDs);
+	}
+
+	@Benchmark
+	public double [] fusedUpdate()
+	{
+		GlickoKernel.update(rating, rd, opponentRatings, opponentRDs, outcomes, opponents, system.getMinRD(), out);
+		return out;
+	}
+}
@@ -0,0 +1,123 @@
+package chessml.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chessml.GameStore;
+import chessml.GlickoSystemStandalone;
+import chessml.RatingServer;
+
+/**
+ * Latency of the rating server over http: predictions while results stream in. The
+ * sample time mode reports the percentiles (p0.99 is the one to watch).
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerBenchmark
+{
+	private RatingServer server;
+	private String base;
+	private GameStore games;
+	private int month;
+
+	@State(Scope.Thread)
+	public static class Cursor
+	{
+		int next;
+	}
+
+	@Setup(Level.Trial)
+	public void setup(Dataset data)
+		throws IOException
+	{
+		// streamed results are applied per game
+		GlickoSystemStandalone g = GlickoSystemStandalone.getInstanceBatchAndNoUpdateDuringTest();
+		g.setDebug(false);
+		g.trainModel(data.training);
+		month = g.getLastMonth() + 1;
+		games = data.test;
+		server = new RatingServer(g);
+		server.start(0, 4);
+		base = "http://localhost:" + server.getPort();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+		throws InterruptedException
+	{
+		server.stop();
+	}
+
+	@Benchmark
+	@Group("stream")
+	@GroupThreads(3)
+	public int predict(Cursor cursor)
+		throws IOException
+	{
+		int game = cursor.next++ % games.size();
+		HttpURLConnection get = (HttpURLConnection) new URL(base + "/predict?white=" + games.getWhiteId(game) +
+				"&black=" + games.getBlackId(game)).openConnection();
+		return drain(get);
+	}
+
+	@Benchmark
+	@Group("stream")
+	@GroupThreads(1)
+	public int submit(Cursor cursor)
+		throws IOException
+	{
+		int game = cursor.next++ % games.size();
+		HttpURLConnection post = (HttpURLConnection) new URL(base + "/game").openConnection();
+		post.setRequestMethod("POST");
+		post.setDoOutput(true);
+		OutputStream out = post.getOutputStream();
+		out.write(("month=" + month + "&white=" + games.getWhiteId(game) + "&black=" + games.getBlackId(game) +
+				"&score=" + games.getScore(game)).getBytes("UTF-8"));
+		out.close();
+		return drain(post);
+	}
+
+	/**
+	 * Read the whole response so the connection goes back to the keep-alive cache
+	 */
+	private static int drain(HttpURLConnection connection)
+		throws IOException
+	{
+		int status = connection.getResponseCode();
+		InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+		byte [] buf = new byte[256];
+		int n = 0;
+		for (int r; (r = in.read(buf)) > 0; ) {
+			n += r;
+		}
+		in.close();
+		return n;
+	}
+}
@@ -0,0 +1,70 @@
+package chessml.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chessml.GlickoSystemStandalone;
+
+/**
+ * Training over all months with per-game or batch rating periods, and scoring a test
+ * month with a trained model.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainingBenchmark
+{
+	@Param({"perGame", "batch"})
+	public String update;
+
+	private GlickoSystemStandalone trained;
+
+	@Setup
+	public void setup(Dataset data)
+	{
+		trained = newModel();
+		trained.trainModel(data.training);
+	}
+
+	protected GlickoSystemStandalone newModel()
+	{
+		// the "Batch" factories are the per-game models (updateAfterEveryGame)
+		GlickoSystemStandalone g = update.equals("perGame") ?
+				GlickoSystemStandalone.getInstanceBatchAndNoUpdateDuringTest() :
+				GlickoSystemStandalone.getInstanceNoBatchAndNoUpdateDuringTest();
+		g.setDebug(false);
+		return g;
+	}
+
+	@Benchmark
+	public GlickoSystemStandalone trainModel(Dataset data)
+	{
+		GlickoSystemStandalone g = newModel();
+		g.trainModel(data.training);
+		return g;
+	}
+
+	@Benchmark
+	public double [] batchPredictions(Dataset data)
+	{
+		return trained.batchPredictions(data.test);
+	}
+}
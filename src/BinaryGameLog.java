@@ -0,0 +1,450 @@
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compact binary game log, one block of games per month with a block index.
+ * <br />
+ * Layout (little endian):
+ * <pre>
+ * header: magic (int), version (int), blocks (int), games (long), index offset (long)
+ * block:  month (int), games (int),
+ *         per game: white id as a zigzag varint delta from the previous white id
+ *                   of the block, black id as a zigzag varint delta from white,
+ *         scores: 2 bits per game, 4 to a byte (0 loss, 1 draw, 2 win, 3 missing)
+ * index:  per block: month (int), games (int), offset (long), length (int)
+ * </pre>
+ * Games keep their order within a month and blocks are in month order, so a store
+ * loaded from the binary log is the same as one loaded from the (month sorted) csv.
+ * Only scores of 0, 0.5 and 1 (or missing) can be stored.
+ * <br />
+ * Usage: <pre>java BinaryGameLog games.csv games.bin</pre>
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class BinaryGameLog
+{
+	public final static int MAGIC = 0x474C4F47; // "GLOG"
+	public final static int VERSION = 1;
+	public final static int HEADER_SIZE = 4*3 + 8*2;
+	public final static int INDEX_ENTRY_SIZE = 4*2 + 8 + 4;
+	public final static int BLOCK_HEADER_SIZE = 4*2;
+
+	public final static int SCORE_LOSS = 0;
+	public final static int SCORE_DRAW = 1;
+	public final static int SCORE_WIN = 2;
+	public final static int SCORE_MISSING = 3;
+
+	// blocks are mapped together up to this size
+	public final static long WINDOW_SIZE = 1L << 30; // 1GB
+
+	private BinaryGameLog()
+	{}
+
+	/**
+	 * @param file
+	 * @return true if the file starts with the binary log magic
+	 * @throws IOException
+	 */
+	public static boolean isBinary(File file)
+		throws IOException
+	{
+		if (file.length() < HEADER_SIZE) {
+			return false;
+		}
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return Integer.reverseBytes(in.readInt()) == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write the games of a store, one block per month
+	 *
+	 * @param store
+	 * @param file
+	 * @return bytes written
+	 * @throws IOException
+	 */
+	public static long write(GameStore store, File file)
+		throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.truncate(0);
+			int numBlocks = store.numMonths();
+			ByteBuffer index = ByteBuffer.allocate(numBlocks * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			ByteBuffer block = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+			long offset = HEADER_SIZE;
+			channel.position(offset);
+			for (int m = 0; m < numBlocks; m++)
+			{
+				int start = store.monthStart(m);
+				int end = store.monthEnd(m);
+				int n = end - start;
+				// worst case 5 bytes per varint
+				long worst = BLOCK_HEADER_SIZE + 10L*n + (n+3)/4;
+				if (worst > Integer.MAX_VALUE) {
+					throw new IOException("Month " + store.getMonthValue(m) + " has too many games for one block: " + n);
+				}
+				if (block.capacity() < worst) {
+					block = ByteBuffer.allocate((int) worst).order(ByteOrder.LITTLE_ENDIAN);
+				}
+				block.clear();
+				block.putInt(store.getMonthValue(m));
+				block.putInt(n);
+				int previous = 0;
+				for (int i = start; i < end; i++)
+				{
+					int white = store.getWhiteId(i);
+					putVarint(block, zigzag(white - previous));
+					putVarint(block, zigzag(store.getBlackId(i) - white));
+					previous = white;
+				}
+				int bits = 0;
+				for (int i = start; i < end; i++)
+				{
+					int k = i - start;
+					bits |= encodeScore(store.getScore(i)) << (2*(k & 3));
+					if ((k & 3) == 3 || i == end-1) {
+						block.put((byte) bits);
+						bits = 0;
+					}
+				}
+				block.flip();
+				int length = block.remaining();
+				while (block.hasRemaining()) {
+					channel.write(block);
+				}
+				index.putInt(store.getMonthValue(m));
+				index.putInt(n);
+				index.putLong(offset);
+				index.putInt(length);
+				offset += length;
+			}
+
+			// index then header
+			index.flip();
+			while (index.hasRemaining()) {
+				channel.write(index);
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(numBlocks);
+			header.putLong(store.size());
+			header.putLong(offset);
+			header.flip();
+			channel.position(0);
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			return channel.size();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Stream all games in the file to the handler, in month order
+	 *
+	 * @param file
+	 * @param handler
+	 * @return number of games read
+	 * @throws IOException
+	 */
+	public static long read(File file, GameLogReader.Handler handler)
+		throws IOException
+	{
+		Reader reader = new Reader(file);
+		try {
+			return reader.readAll(handler);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Decode a whole log into a store, sized from the header
+	 *
+	 * @param file
+	 * @param players - index to map player ids through, new players are added to it
+	 * @return
+	 * @throws IOException
+	 */
+	public static GameStore load(File file, PlayerIndex players)
+		throws IOException
+	{
+		Reader reader = new Reader(file);
+		try {
+			GameStore.Builder builder = new GameStore.Builder(players, (int) Math.min(reader.numGames(), Integer.MAX_VALUE-8));
+			reader.readAll(builder);
+			return builder.build();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Random access to the blocks of a binary log through its index
+	 */
+	public static class Reader
+	{
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		private final long numGames;
+		private final int [] months;
+		private final int [] games;
+		private final long [] offsets;
+		private final int [] lengths;
+
+		public Reader(File file)
+			throws IOException
+		{
+			raf = new RandomAccessFile(file, "r");
+			try {
+				channel = raf.getChannel();
+				ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				if (header.getInt() != MAGIC) {
+					throw new IOException("Not a binary game log: " + file);
+				}
+				int version = header.getInt();
+				if (version != VERSION) {
+					throw new IOException("Unsupported binary game log version " + version + ": " + file);
+				}
+				int numBlocks = header.getInt();
+				numGames = header.getLong();
+				long indexOffset = header.getLong();
+				ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) numBlocks * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				months = new int[numBlocks];
+				games = new int[numBlocks];
+				offsets = new long[numBlocks];
+				lengths = new int[numBlocks];
+				for (int i = 0; i < numBlocks; i++) {
+					months[i] = index.getInt();
+					games[i] = index.getInt();
+					offsets[i] = index.getLong();
+					lengths[i] = index.getInt();
+				}
+			} catch (IOException e) {
+				raf.close();
+				throw e;
+			}
+		}
+
+		public int numBlocks()
+		{
+			return months.length;
+		}
+
+		public long numGames()
+		{
+			return numGames;
+		}
+
+		public int getMonth(int block)
+		{
+			return months[block];
+		}
+
+		public int getNumGames(int block)
+		{
+			return games[block];
+		}
+
+		/**
+		 * @param month - month value
+		 * @return the block of the month, -1 if there is none
+		 */
+		public int findBlock(int month)
+		{
+			for (int i = 0; i < months.length; i++) {
+				if (months[i] == month) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @param handler
+		 * @return number of games read
+		 * @throws IOException
+		 */
+		public long readAll(GameLogReader.Handler handler)
+			throws IOException
+		{
+			return readBlocks(0, months.length, handler);
+		}
+
+		/**
+		 * Decode blocks [from, to) to the handler, consecutive blocks are mapped together
+		 *
+		 * @param from
+		 * @param to
+		 * @param handler
+		 * @return number of games read
+		 * @throws IOException
+		 */
+		public long readBlocks(int from, int to, GameLogReader.Handler handler)
+			throws IOException
+		{
+			long count = 0;
+			int i = from;
+			while (i < to)
+			{
+				long base = offsets[i];
+				int j = i;
+				while (j < to && offsets[j] + lengths[j] - base <= WINDOW_SIZE) {
+					j++;
+				}
+				if (j == i) {
+					throw new IOException("Block of month " + months[i] + " is larger than " + WINDOW_SIZE + " bytes");
+				}
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, base, offsets[j-1] + lengths[j-1] - base);
+				window.order(ByteOrder.LITTLE_ENDIAN);
+				for (int k = i; k < j; k++) {
+					count += decodeBlock(window, (int) (offsets[k]-base), handler);
+				}
+				i = j;
+			}
+			return count;
+		}
+
+		public void close()
+			throws IOException
+		{
+			raf.close();
+		}
+	}
+
+	/**
+	 * @param buffer
+	 * @param pos - start of the block in the buffer
+	 * @param handler
+	 * @return number of games
+	 */
+	protected static int decodeBlock(ByteBuffer buffer, int pos, GameLogReader.Handler handler)
+	{
+		int month = buffer.getInt(pos);
+		int n = buffer.getInt(pos+4);
+		pos += BLOCK_HEADER_SIZE;
+
+		// the scores follow the ids, find them first
+		int scores = pos;
+		for (int k = 0; k < 2*n; k++) {
+			while (buffer.get(scores++) < 0) {
+				// continuation
+			}
+		}
+
+		int white = 0;
+		for (int k = 0; k < n; k++)
+		{
+			// white delta
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buffer.get(pos++);
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			white += unzigzag(value);
+			// black delta from white
+			value = 0;
+			shift = 0;
+			do {
+				b = buffer.get(pos++);
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			int black = white + unzigzag(value);
+
+			int code = (buffer.get(scores + (k >>> 2)) >>> (2*(k & 3))) & 3;
+			handler.game(month, white, black, decodeScore(code));
+		}
+		return n;
+	}
+
+	protected static int encodeScore(double score)
+		throws IOException
+	{
+		if (Double.isNaN(score)) {
+			return SCORE_MISSING;
+		}
+		if (score == 0.0) {
+			return SCORE_LOSS;
+		}
+		if (score == 0.5) {
+			return SCORE_DRAW;
+		}
+		if (score == 1.0) {
+			return SCORE_WIN;
+		}
+		throw new IOException("Score " + score + " cannot be stored in 2 bits");
+	}
+
+	protected static double decodeScore(int code)
+	{
+		switch (code) {
+		case SCORE_LOSS: return 0.0;
+		case SCORE_DRAW: return 0.5;
+		case SCORE_WIN: return 1.0;
+		default: return Double.NaN;
+		}
+	}
+
+	private static void putVarint(ByteBuffer buffer, int value)
+	{
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static int zigzag(int value)
+	{
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Usage: java BinaryGameLog games.csv games.bin
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		// most basic validation
+		if (args.length < 2) {
+			System.out.println("Usage: java BinaryGameLog games.csv games.bin");
+			System.exit(1);
+		}
+		File in = new File(args[0]);
+		File out = new File(args[1]);
+		GameStore store = GlickoSystemStandalone.loadDataset(in);
+		long start = System.currentTimeMillis();
+		long bytes = write(store, out);
+		System.out.println("Wrote " + store.size() + " games in " + store.numMonths() + " blocks to " + out.getName() +
+				": " + bytes + " bytes (" + (in.length() / (double) Math.max(bytes, 1)) + "x smaller) in " +
+				(System.currentTimeMillis()-start) + " ms");
+	}
+}
@@ -0,0 +1,67 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Where the columns of a {@link RatingTable} live: on the heap (the default), off
+ * the heap in direct buffers, or in memory-mapped files in a directory (one file per
+ * column) which survive a restart.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public interface ColumnStorage
+{
+	/**
+	 * @param name - unique within the storage (e.g. "rating")
+	 * @return the column, restored if the storage is persistent and the column exists
+	 */
+	DoubleColumn column(String name);
+
+	/**
+	 * @return true if columns keep their values across restarts
+	 */
+	boolean isPersistent();
+
+	public final static ColumnStorage HEAP = new ColumnStorage() {
+		public DoubleColumn column(String name) {
+			return new DoubleColumn.Heap();
+		}
+		public boolean isPersistent() {
+			return false;
+		}
+	};
+
+	public final static ColumnStorage OFF_HEAP = new ColumnStorage() {
+		public DoubleColumn column(String name) {
+			return new OffHeapColumn();
+		}
+		public boolean isPersistent() {
+			return false;
+		}
+	};
+
+	/**
+	 * @param directory - created if needed, holds a name.col file per column
+	 * @return storage in memory-mapped files
+	 */
+	public static ColumnStorage mapped(final File directory)
+	{
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new UncheckedIOException(new IOException("Cannot create " + directory));
+		}
+		return new ColumnStorage() {
+			public DoubleColumn column(String name) {
+				try {
+					return new OffHeapColumn(new File(directory, name + ".col"));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			public boolean isPersistent() {
+				return true;
+			}
+		};
+	}
+}
@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable column of doubles indexed by dense player index, the storage behind
+ * a {@link RatingTable}.
+ * <br />
+ * See {@link ColumnStorage} for the heap, off-heap and memory-mapped versions.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public interface DoubleColumn
+{
+	double get(int index);
+
+	void set(int index, double value);
+
+	/**
+	 * @return number of values in use (kept across restarts by persistent columns)
+	 */
+	int size();
+
+	/**
+	 * Make room for and record a new size, values past the old size are undefined
+	 * @param newSize
+	 */
+	void setSize(int newSize);
+
+	/**
+	 * Copy the remaining values of a buffer to [index, index+remaining), the buffer
+	 * is not moved
+	 * @param index
+	 * @param values
+	 */
+	default void put(int index, DoubleBuffer values)
+	{
+		for (int i = 0, n = values.remaining(); i < n; i++) {
+			set(index + i, values.get(values.position() + i));
+		}
+	}
+
+	/**
+	 * Write changes through to the backing file, if any
+	 */
+	void force();
+
+	/**
+	 * Write through and release the storage, the column must not be used afterwards
+	 * @throws IOException
+	 */
+	default void close()
+		throws IOException
+	{}
+
+	/**
+	 * Plain double[] column
+	 */
+	public static class Heap implements DoubleColumn
+	{
+		private int size;
+		private double [] values = new double[0];
+
+		public double get(int index)
+		{
+			return values[index];
+		}
+
+		public void set(int index, double value)
+		{
+			values[index] = value;
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		public void setSize(int newSize)
+		{
+			if (newSize > values.length) {
+				values = Arrays.copyOf(values, Math.max(newSize, values.length + (values.length >> 1)));
+			}
+			size = newSize;
+		}
+
+		public void put(int index, DoubleBuffer src)
+		{
+			src.duplicate().get(values, index, src.remaining());
+		}
+
+		public void force()
+		{}
+	}
+}
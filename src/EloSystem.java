@@ -0,0 +1,96 @@
+import java.util.Arrays;
+
+/**
+ * The Elo System
+ * <br />
+ * Ratings are updated after every game in month order with a fixed K factor.
+ * <br />
+ * See:
+ * <ul>
+ * 	<li>http://en.wikipedia.org/wiki/Elo_rating_system</li>
+ * </ul>
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class EloSystem implements RatingSystem
+{
+	private final double defaultRating;
+	private final double k;
+
+	private int size;
+	private double [] ratings = new double[0];
+
+	public EloSystem()
+	{
+		this(1500, 32);
+	}
+
+	/**
+	 * @param aDefaultRating - rating of new players
+	 * @param aK - K factor, the largest change from a single game
+	 */
+	public EloSystem(double aDefaultRating, double aK)
+	{
+		defaultRating = aDefaultRating;
+		k = aK;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() +
+			" [" +
+			"defaultRating="+defaultRating+", " +
+			"k="+k+
+			"]";
+	}
+
+	public double getRating(int player)
+	{
+		return ratings[player];
+	}
+
+	public void preparePlayers(PlayerIndex players)
+	{
+		if (players.size() <= size) {
+			return;
+		}
+		if (players.size() > ratings.length) {
+			ratings = Arrays.copyOf(ratings, Math.max(players.size(), ratings.length + (ratings.length >> 1)));
+		}
+		Arrays.fill(ratings, size, players.size(), defaultRating);
+		size = players.size();
+	}
+
+	public void updateMonth(GameStore records, int monthIndex, boolean isTest)
+	{
+		// the expected outcome leaves Elo ratings where they are
+		if (isTest) {
+			return;
+		}
+		for (int i = records.monthStart(monthIndex); i < records.monthEnd(monthIndex); i++)
+		{
+			int white = records.getWhite(i);
+			int black = records.getBlack(i);
+			double delta = k * (records.getScore(i) - expectedScore(ratings[white], ratings[black]));
+			ratings[white] += delta;
+			ratings[black] -= delta;
+		}
+	}
+
+	public double predictResult(int white, int black)
+	{
+		return expectedScore(ratings[white], ratings[black]);
+	}
+
+	/**
+	 * @param rating
+	 * @param opponentRating
+	 * @return expected score for the player
+	 */
+	public final static double expectedScore(double rating, double opponentRating)
+	{
+		return 1.0 / (1.0 + Math.pow(10.0, (opponentRating-rating) / 400.0));
+	}
+}
@@ -0,0 +1,283 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Rolling-origin time split evaluation of rating systems.
+ * <br />
+ * The last folds*horizon months of a store are cut into consecutive test windows. For
+ * each fold a fresh model is trained on all months before its window and predicts the
+ * window with those ratings (no outcomes from the window are seen, as in the
+ * competition). Folds are independent and run in parallel on a fork-join pool, all
+ * of them reading the same parsed store.
+ * <br />
+ * Each fold is scored by the competition error (monthly aggregated player RMSE) and
+ * the binomial deviance of the per-game predictions.
+ * <br />
+ * Usage: <pre>java Evaluation training_data.csv [folds] [horizon_months]</pre>
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class Evaluation
+{
+	// predictions are clipped before taking logs
+	public final static double DEVIANCE_CLIP = 0.01;
+
+	/**
+	 * Makes a new untrained model for each fold
+	 */
+	public interface ModelFactory
+	{
+		RatingSystem newModel();
+	}
+
+	/**
+	 * Scores of one fold
+	 */
+	public static class Score
+	{
+		public final int fromMonth;
+		public final int toMonth;
+		public final double rmse;
+		public final double deviance;
+
+		public Score(int aFromMonth, int aToMonth, double aRmse, double aDeviance)
+		{
+			fromMonth = aFromMonth;
+			toMonth = aToMonth;
+			rmse = aRmse;
+			deviance = aDeviance;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "months [" + fromMonth + ", " + toMonth + "): rmse=" + rmse + ", deviance=" + deviance;
+		}
+	}
+
+	private final GameStore games;
+	private final int folds;
+	private final int horizon;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * @param aGames - shared by all folds, never modified
+	 * @param aFolds - number of test windows
+	 * @param aHorizon - months in each test window
+	 */
+	public Evaluation(GameStore aGames, int aFolds, int aHorizon)
+	{
+		if (aFolds < 1 || aHorizon < 1 || aFolds*aHorizon >= aGames.numMonths()) {
+			throw new IllegalArgumentException(aFolds + " folds of " + aHorizon + " months need more than " + (aFolds*aHorizon) + " months, have " + aGames.numMonths());
+		}
+		games = aGames;
+		folds = aFolds;
+		horizon = aHorizon;
+	}
+
+	public void setPool(ForkJoinPool aPool)
+	{
+		pool = aPool;
+	}
+
+	public int getFolds()
+	{
+		return folds;
+	}
+
+	/**
+	 * @param fold
+	 * @return first month index of the fold's test window (all months before it are trained on)
+	 */
+	public int getOrigin(int fold)
+	{
+		return games.numMonths() - (folds-fold)*horizon;
+	}
+
+	/**
+	 * Train and score a single fold
+	 *
+	 * @param factory
+	 * @param fold
+	 * @return
+	 */
+	public Score evaluateFold(ModelFactory factory, int fold)
+	{
+		int from = getOrigin(fold);
+		int to = from + horizon;
+		RatingSystem model = factory.newModel();
+		model.trainModel(games, 0, from);
+
+		double [] predictions = new double[games.size()];
+		for (int m = from; m < to; m++) {
+			model.predictMonth(games, m, predictions);
+		}
+		return new Score(from, to,
+				monthlyPlayerRmse(games, from, to, predictions),
+				binomialDeviance(games, from, to, predictions));
+	}
+
+	/**
+	 * Evaluate all folds in parallel
+	 *
+	 * @param factory - called once per fold, from the pool's threads
+	 * @return scores in fold order
+	 */
+	public Score [] evaluate(final ModelFactory factory)
+	{
+		final Score [] scores = new Score[folds];
+		final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (int i = 0; i < folds; i++)
+		{
+			final int fold = i;
+			tasks.add(new RecursiveAction() {
+				protected void compute() {
+					scores[fold] = evaluateFold(factory, fold);
+				}
+			});
+		}
+		pool.invoke(new RecursiveAction() {
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		return scores;
+	}
+
+	public static double meanRmse(Score [] scores)
+	{
+		double sum = 0.0;
+		for (Score score : scores) {
+			sum += score.rmse;
+		}
+		return sum / scores.length;
+	}
+
+	public static double meanDeviance(Score [] scores)
+	{
+		double sum = 0.0;
+		for (Score score : scores) {
+			sum += score.deviance;
+		}
+		return sum / scores.length;
+	}
+
+	/**
+	 * Competition error: for each player in each month, the RMSE between the
+	 * total actual score and the total predicted score
+	 *
+	 * @param games
+	 * @param fromMonth - first month index (inclusive)
+	 * @param toMonth - last month index (exclusive)
+	 * @param predictions - expected score for white, indexed by game
+	 * @return
+	 */
+	public static double monthlyPlayerRmse(GameStore games, int fromMonth, int toMonth, double [] predictions)
+	{
+		double sum = 0.0;
+		long count = 0;
+		for (int m = fromMonth; m < toMonth; m++)
+		{
+			for (int k = games.activeStart(m); k < games.activeEnd(m); k++)
+			{
+				int player = games.getActivePlayer(k);
+				double actual = 0.0;
+				double predicted = 0.0;
+				for (int j = games.playerGamesStart(k); j < games.playerGamesEnd(k); j++) {
+					int game = games.getPlayerGame(j);
+					boolean white = (games.getWhite(game) == player);
+					actual += white ? games.getScore(game) : 1.0-games.getScore(game);
+					predicted += white ? predictions[game] : 1.0-predictions[game];
+				}
+				sum += (actual-predicted) * (actual-predicted);
+				count++;
+			}
+		}
+		return Math.sqrt(sum / count);
+	}
+
+	/**
+	 * Mean binomial deviance (log10) of the white scores, predictions are clipped
+	 * to [0.01, 0.99] and draws count as half a win
+	 *
+	 * @param games
+	 * @param fromMonth - first month index (inclusive)
+	 * @param toMonth - last month index (exclusive)
+	 * @param predictions - expected score for white, indexed by game
+	 * @return
+	 */
+	public static double binomialDeviance(GameStore games, int fromMonth, int toMonth, double [] predictions)
+	{
+		int start = games.monthStart(fromMonth);
+		int end = games.monthEnd(toMonth-1);
+		double sum = 0.0;
+		for (int i = start; i < end; i++)
+		{
+			double p = Math.min(Math.max(predictions[i], DEVIANCE_CLIP), 1.0-DEVIANCE_CLIP);
+			double y = games.getScore(i);
+			sum -= y*Math.log10(p) + (1.0-y)*Math.log10(1.0-p);
+		}
+		return sum / (end-start);
+	}
+
+	/**
+	 * Usage: java Evaluation training_data.csv [folds] [horizon_months]
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		// most basic validation
+		if (args.length < 1) {
+			System.out.println("Usage: java Evaluation training_data.csv [folds] [horizon_months]");
+			System.exit(1);
+		}
+		int folds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+		int horizon = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+
+		GameStore games = GlickoSystemStandalone.loadDataset(new File(args[0]));
+		Evaluation evaluation = new Evaluation(games, folds, horizon);
+
+		String [] names = {"Glicko (batch)", "Glicko (per-game)", "Elo", "Glicko-2"};
+		ModelFactory [] factories = {
+			new ModelFactory() {
+				public RatingSystem newModel() {
+					GlickoSystemStandalone model = GlickoSystemStandalone.getInstanceNoBatchAndNoUpdateDuringTest();
+					model.setDebug(false);
+					return model;
+				}
+			},
+			new ModelFactory() {
+				public RatingSystem newModel() {
+					GlickoSystemStandalone model = GlickoSystemStandalone.getInstanceBatchAndNoUpdateDuringTest();
+					model.setDebug(false);
+					return model;
+				}
+			},
+			new ModelFactory() {
+				public RatingSystem newModel() {
+					return new EloSystem();
+				}
+			},
+			new ModelFactory() {
+				public RatingSystem newModel() {
+					return new Glicko2System();
+				}
+			},
+		};
+		for (int i = 0; i < factories.length; i++)
+		{
+			long start = System.currentTimeMillis();
+			Score [] scores = evaluation.evaluate(factories[i]);
+			System.out.println(names[i] + ": rmse=" + meanRmse(scores) + ", deviance=" + meanDeviance(scores) + " (" + folds + " folds in " + (System.currentTimeMillis()-start) + " ms)");
+			for (Score score : scores) {
+				System.out.println("  " + score);
+			}
+		}
+	}
+}
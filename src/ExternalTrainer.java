@@ -0,0 +1,260 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Out of core training for game logs larger than the heap.
+ * <br />
+ * The log (csv in any month order) is read once in runs of at most runGames games,
+ * each run is sorted by month (stable) and spilled to a temporary binary log (see
+ * {@link BinaryGameLog}, one block per month). The runs are then merged a month at a
+ * time: the blocks of the month are decoded from every run, in run order, into a
+ * store of just that month which the model processes with updateMonth as usual.
+ * <br />
+ * Games keep their file order within a month and players get their dense indexes in
+ * file order, exactly as when the whole log is loaded, so the trained model is the
+ * same as one from {@link RatingSystem#trainModel(GameStore)}. A binary log is
+ * already in month blocks and is streamed without spilling.
+ * <br />
+ * Peak memory is one run while spilling and the largest month while merging, plus
+ * the player index and rating table. A run file stays open per run while merging.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class ExternalTrainer
+{
+	public final static int DEFAULT_RUN_GAMES = 1 << 21;
+
+	private final File tempDirectory;
+	private final int runGames;
+
+	// largest month merged by the last call, in games
+	private int largestMonth;
+	private int numRuns;
+
+	/**
+	 * Receives the games of one month at a time, in month order
+	 */
+	public interface MonthHandler
+	{
+		/**
+		 * @param games - a store holding a single month (index 0)
+		 */
+		void month(GameStore games);
+	}
+
+	/**
+	 * @param aTempDirectory - where runs are spilled, null for the system default
+	 * @param aRunGames - most games held in memory while spilling
+	 */
+	public ExternalTrainer(File aTempDirectory, int aRunGames)
+	{
+		if (aRunGames < 1) {
+			throw new IllegalArgumentException("Run size must be at least one game: " + aRunGames);
+		}
+		tempDirectory = aTempDirectory;
+		runGames = aRunGames;
+	}
+
+	public ExternalTrainer()
+	{
+		this(null, DEFAULT_RUN_GAMES);
+	}
+
+	/**
+	 * Train a model on all months of a log
+	 *
+	 * @param model
+	 * @param log - csv or binary
+	 * @return index of the players in the log, as given to the model
+	 * @throws IOException
+	 */
+	public PlayerIndex train(final RatingSystem model, File log)
+		throws IOException
+	{
+		final PlayerIndex players = new PlayerIndex();
+		forEachMonth(log, players, new MonthHandler() {
+			public void month(GameStore games) {
+				model.preparePlayers(players);
+				model.updateMonth(games, 0, false);
+			}
+		});
+		return players;
+	}
+
+	/**
+	 * Stream a log one month at a time, in month order
+	 *
+	 * @param log - csv or binary
+	 * @param players - index to map player ids through, new players are added to it
+	 * @param handler
+	 * @return number of games
+	 * @throws IOException
+	 */
+	public long forEachMonth(File log, PlayerIndex players, MonthHandler handler)
+		throws IOException
+	{
+		largestMonth = 0;
+		if (BinaryGameLog.isBinary(log)) {
+			numRuns = 1;
+			List<File> runs = new ArrayList<File>();
+			runs.add(log);
+			return merge(runs, players, handler);
+		}
+
+		List<File> runs = new ArrayList<File>();
+		try {
+			spill(log, players, runs);
+			numRuns = runs.size();
+			return merge(runs, players, handler);
+		} finally {
+			for (File run : runs) {
+				run.delete();
+			}
+		}
+	}
+
+	/**
+	 * Read a csv log into month sorted runs
+	 */
+	protected void spill(File log, final PlayerIndex players, final List<File> runs)
+		throws IOException
+	{
+		final GameStore.Builder [] builder = {new GameStore.Builder(players, runGames)};
+		try {
+			GameLogReader.read(log, new GameLogReader.Handler() {
+				public void game(int month, int white, int black, double score) {
+					builder[0].game(month, white, black, score);
+					if (builder[0].size() == runGames) {
+						writeRun(builder[0].build(), runs);
+						builder[0] = new GameStore.Builder(players, runGames);
+					}
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		if (builder[0].size() > 0) {
+			writeRun(builder[0].build(), runs);
+		}
+	}
+
+	private void writeRun(GameStore run, List<File> runs)
+	{
+		try {
+			File file = File.createTempFile("chessml-run", ".bin", tempDirectory);
+			runs.add(file);
+			BinaryGameLog.write(run, file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * k-way merge of the runs by month, each run has at most one block per month
+	 */
+	protected long merge(List<File> runs, PlayerIndex players, MonthHandler handler)
+		throws IOException
+	{
+		int k = runs.size();
+		BinaryGameLog.Reader [] readers = new BinaryGameLog.Reader[k];
+		int [] next = new int[k];
+		long count = 0;
+		try {
+			for (int r = 0; r < k; r++) {
+				readers[r] = new BinaryGameLog.Reader(runs.get(r));
+			}
+			while (true)
+			{
+				// smallest month still to come, and its size
+				int month = Integer.MAX_VALUE;
+				boolean more = false;
+				for (int r = 0; r < k; r++) {
+					if (next[r] < readers[r].numBlocks()) {
+						month = Math.min(month, readers[r].getMonth(next[r]));
+						more = true;
+					}
+				}
+				if (!more) {
+					break;
+				}
+				int games = 0;
+				for (int r = 0; r < k; r++) {
+					if (next[r] < readers[r].numBlocks() && readers[r].getMonth(next[r]) == month) {
+						games += readers[r].getNumGames(next[r]);
+					}
+				}
+
+				GameStore.Builder builder = new GameStore.Builder(players, games);
+				for (int r = 0; r < k; r++) {
+					if (next[r] < readers[r].numBlocks() && readers[r].getMonth(next[r]) == month) {
+						readers[r].readBlocks(next[r], next[r]+1, builder);
+						next[r]++;
+					}
+				}
+				largestMonth = Math.max(largestMonth, games);
+				count += games;
+				handler.month(builder.build());
+			}
+		} finally {
+			for (int r = 0; r < k; r++) {
+				if (readers[r] != null) {
+					readers[r].close();
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return games in the largest month of the last log streamed
+	 */
+	public int getLargestMonth()
+	{
+		return largestMonth;
+	}
+
+	/**
+	 * @return runs the last log was spilled to (1 for a binary log)
+	 */
+	public int getNumRuns()
+	{
+		return numRuns;
+	}
+
+	/**
+	 * Usage: ExternalTrainer training_data.csv test_data.csv [runGames] [tempDirectory]
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 2) {
+			System.out.println("Usage: java ExternalTrainer training_data.csv test_data.csv [runGames] [tempDirectory]");
+			System.exit(1);
+		}
+		int runGames = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_RUN_GAMES;
+		File tempDirectory = (args.length > 3) ? new File(args[3]) : null;
+
+		// train
+		long start = System.currentTimeMillis();
+		ExternalTrainer trainer = new ExternalTrainer(tempDirectory, runGames);
+		GlickoSystemStandalone g = GlickoSystemStandalone.getInstanceNoBatchAndNoUpdateDuringTest();
+		g.setPool(new ForkJoinPool());
+		System.out.println("Model: " + g);
+		PlayerIndex players = trainer.train(g, new File(args[0]));
+		System.out.println("Trained out of core: " + trainer.getNumRuns() + " runs, largest month " +
+				trainer.getLargestMonth() + " games, " + (System.currentTimeMillis()-start) + " ms");
+
+		// generate submission file, same player index as training
+		GameStore test = GlickoSystemStandalone.loadDataset(new File(args[1]), players);
+		double [] predictions = g.batchPredictions(test);
+		GlickoSystemStandalone.saveDataset(test, predictions, new File("submission.csv"));
+		System.out.println("Wrote file: submission.csv, done.");
+	}
+}
@@ -0,0 +1,234 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Streaming reader for the competition game logs (month, white, black[, score] csv).
+ * <br />
+ * The file is memory mapped in large windows and the fields are parsed straight
+ * from the bytes, no Strings are created per line. Each game is handed to a
+ * {@link Handler} as soon as it is parsed so the caller decides what (if anything)
+ * is retained on the heap.
+ * <br />
+ * The first line is assumed to be the header and is skipped. Missing scores
+ * (test files) are passed as NaN.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class GameLogReader
+{
+	/**
+	 * Receives games in file order
+	 */
+	public interface Handler
+	{
+		void game(int month, int white, int black, double score);
+	}
+
+	// size of each mapped region, lines never straddle two regions
+	public final static long WINDOW_SIZE = 1L << 30; // 1GB
+
+	// powers of ten that are exactly representable as a double
+	private final static double [] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1.0;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10.0;
+		}
+	}
+
+	private final static Charset ASCII = Charset.forName("US-ASCII");
+
+	private MappedByteBuffer buffer;
+	private int pos;
+	private int limit;
+	private final double [] fields = new double[4];
+
+	private GameLogReader()
+	{}
+
+	/**
+	 * Stream all games in the file to the handler
+	 *
+	 * @param file
+	 * @param handler
+	 * @return number of games read
+	 * @throws IOException
+	 */
+	public static long read(File file, Handler handler)
+		throws IOException
+	{
+		return new GameLogReader().readFile(file, handler);
+	}
+
+	protected long readFile(File file, Handler handler)
+		throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			long base = 0;
+			long count = 0;
+			boolean header = true;
+
+			while (base < length)
+			{
+				long size = Math.min(WINDOW_SIZE, length - base);
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, size);
+				boolean last = (base + size == length);
+
+				// only parse up to the last complete line unless at the end of the file
+				limit = (int) size;
+				if (!last) {
+					while (limit > 0 && buffer.get(limit-1) != '\n') {
+						limit--;
+					}
+					if (limit == 0) {
+						throw new IOException("Line longer than " + WINDOW_SIZE + " bytes at offset " + base);
+					}
+				}
+
+				pos = 0;
+				if (header) {
+					skipLine();
+					header = false;
+				}
+				while (pos < limit) {
+					count += parseLine(handler);
+				}
+				base += limit;
+			}
+			return count;
+		} finally {
+			buffer = null;
+			raf.close();
+		}
+	}
+
+	protected void skipLine()
+	{
+		while (pos < limit && buffer.get(pos++) != '\n') {
+			// skip
+		}
+	}
+
+	protected int parseLine(Handler handler)
+		throws IOException
+	{
+		// each delimiter ends a field, trailing empty fields are dropped (as String.split)
+		int numFields = 0;
+		int numDelimiters = 0;
+		while (pos < limit)
+		{
+			byte b = buffer.get(pos);
+			if (b == '\n') {
+				pos++;
+				break;
+			}
+			if (b == '\r') {
+				pos++;
+				continue;
+			}
+			if (b == ',') {
+				numDelimiters++;
+				pos++;
+				continue;
+			}
+			if (numDelimiters > numFields) {
+				throw new IOException("Empty field " + (numFields+1) + " before offset " + pos);
+			}
+			// no error checking on extra columns - who cares
+			double value = parseNumber();
+			if (numFields < fields.length) {
+				fields[numFields] = value;
+			}
+			numFields++;
+		}
+		numFields = Math.min(numFields, fields.length);
+
+		// blank line
+		if (numFields == 0) {
+			return 0;
+		}
+		if (numFields < 3) {
+			throw new IOException("Expected at least 3 fields before offset " + pos + ", got " + numFields);
+		}
+		handler.game((int)fields[0], (int)fields[1], (int)fields[2], (numFields==4) ? fields[3] : Double.NaN);
+		return 1;
+	}
+
+	/**
+	 * Parse a decimal number from the current position up to the next delimiter.
+	 * Values with at most 15 significant digits and a small exponent are computed
+	 * directly (exact, the same result as Double.parseDouble), anything else falls
+	 * back to Double.parseDouble.
+	 *
+	 * @return
+	 */
+	protected double parseNumber()
+	{
+		int start = pos;
+		boolean negative = false;
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean fraction = false;
+		boolean simple = true;
+
+		byte b = buffer.get(pos);
+		if (b == '-' || b == '+') {
+			negative = (b == '-');
+			pos++;
+		}
+
+		while (pos < limit)
+		{
+			b = buffer.get(pos);
+			if (b >= '0' && b <= '9') {
+				if (mantissa != 0 || b != '0') {
+					digits++;
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				if (fraction) {
+					scale++;
+				}
+			} else if (b == '.' && !fraction) {
+				fraction = true;
+			} else if (b == ',' || b == '\n' || b == '\r') {
+				break;
+			} else {
+				// exponent, quotes, NaN and friends
+				simple = false;
+			}
+			pos++;
+			if (digits > 15) {
+				simple = false;
+			}
+		}
+
+		if (!simple || scale >= POWERS_OF_TEN.length || pos == start) {
+			return parseSlow(start, pos);
+		}
+		double value = (scale == 0) ? (double) mantissa : (double) mantissa / POWERS_OF_TEN[scale];
+		return negative ? -value : value;
+	}
+
+	protected double parseSlow(int start, int end)
+	{
+		byte [] raw = new byte[end-start];
+		for (int i = 0; i < raw.length; i++) {
+			raw[i] = buffer.get(start+i);
+		}
+		String s = new String(raw, ASCII).trim();
+		if (s.length() > 1 && s.charAt(0) == '"' && s.charAt(s.length()-1) == '"') {
+			s = s.substring(1, s.length()-1);
+		}
+		return Double.parseDouble(s);
+	}
+}
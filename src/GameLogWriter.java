@@ -0,0 +1,158 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streaming csv writer for game logs and submission files.
+ * <br />
+ * Numbers are formatted straight into a reusable direct byte buffer (ASCII) which is
+ * written to a FileChannel in large chunks, nothing is built up on the heap.
+ * Decimals are written with a fixed number of places.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class GameLogWriter
+{
+	public final static int BUFFER_SIZE = 1 << 20; // 1MB
+	// room for the longest single value
+	private final static int MAX_VALUE_LENGTH = 64;
+
+	private final static long [] POWERS_OF_TEN = new long[10];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+		}
+	}
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final byte [] digits = new byte[20];
+	private long bytesWritten;
+
+	public GameLogWriter(File file)
+		throws IOException
+	{
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		channel.truncate(0);
+	}
+
+	/**
+	 * @return bytes written to the file so far (including buffered)
+	 */
+	public long getBytesWritten()
+	{
+		return bytesWritten + buffer.position();
+	}
+
+	public GameLogWriter write(String s)
+		throws IOException
+	{
+		for (int i = 0; i < s.length(); i++) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			buffer.put((byte) s.charAt(i));
+		}
+		return this;
+	}
+
+	public GameLogWriter write(char c)
+		throws IOException
+	{
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+		buffer.put((byte) c);
+		return this;
+	}
+
+	public GameLogWriter write(long value)
+		throws IOException
+	{
+		ensureRoom();
+		putLong(value);
+		return this;
+	}
+
+	/**
+	 * @param value
+	 * @param places - decimal places, rounded half up (0 to 9)
+	 * @return
+	 * @throws IOException
+	 */
+	public GameLogWriter write(double value, int places)
+		throws IOException
+	{
+		if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e9) {
+			return write(Double.toString(value));
+		}
+		ensureRoom();
+		long scaled = Math.round(Math.abs(value) * POWERS_OF_TEN[places]);
+		if (value < 0 && scaled != 0) {
+			buffer.put((byte) '-');
+		}
+		putLong(scaled / POWERS_OF_TEN[places]);
+		if (places > 0) {
+			buffer.put((byte) '.');
+			long fraction = scaled % POWERS_OF_TEN[places];
+			for (int i = places-1; i >= 0; i--) {
+				digits[i] = (byte) ('0' + (fraction % 10));
+				fraction /= 10;
+			}
+			buffer.put(digits, 0, places);
+		}
+		return this;
+	}
+
+	private void putLong(long value)
+	{
+		if (value < 0) {
+			buffer.put((byte) '-');
+		}
+		// digits from the negative side so Long.MIN_VALUE works too
+		long remaining = (value < 0) ? value : -value;
+		int n = 0;
+		do {
+			digits[n++] = (byte) ('0' - (remaining % 10));
+			remaining /= 10;
+		} while (remaining != 0);
+		while (n > 0) {
+			buffer.put(digits[--n]);
+		}
+	}
+
+	private void ensureRoom()
+		throws IOException
+	{
+		if (buffer.remaining() < MAX_VALUE_LENGTH) {
+			flush();
+		}
+	}
+
+	public void flush()
+		throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			bytesWritten += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	public void close()
+		throws IOException
+	{
+		try {
+			flush();
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,359 @@
+import java.util.Arrays;
+
+/**
+ * Columnar, read-only store of games sorted by month.
+ * <br />
+ * Players are stored as dense indexes from a {@link PlayerIndex}, stores that share
+ * an index (training and test) can be rated with the same {@link RatingTable}.
+ * <br />
+ * Games are held as primitive columns (month, white, black, score) in month order,
+ * games within a month keep the order in which they were added. Two CSR style indexes
+ * are built once:
+ * <ul>
+ * 	<li>by month: the range of games played in each month</li>
+ * 	<li>by (month, player): the players active in each month and, for each, the games they played</li>
+ * </ul>
+ * so the rating period loops iterate primitive ranges rather than regrouping records.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class GameStore
+{
+	private final PlayerIndex players;
+
+	// games
+	private final int size;
+	private final int [] month;
+	private final int [] white;
+	private final int [] black;
+	private final float [] score;
+
+	// month index
+	private final int [] months; // distinct months, ascending
+	private final int [] monthOffsets; // numMonths+1, into games
+
+	// (month, player) index
+	private final int [] monthPlayerOffsets; // numMonths+1, into activePlayers
+	private final int [] activePlayers; // players active in each month, ascending within a month
+	private final int [] activeGameOffsets; // activePlayers.length+1, into playerGames
+	private final int [] playerGames; // game indexes for each active player, ascending
+
+	protected GameStore(PlayerIndex aPlayers, int aSize, int [] aMonth, int [] aWhite, int [] aBlack, float [] aScore)
+	{
+		players = aPlayers;
+		size = aSize;
+		month = aMonth;
+		white = aWhite;
+		black = aBlack;
+		score = aScore;
+
+		// month index
+		int numMonths = 0;
+		for (int i = 0; i < size; i++) {
+			if (i == 0 || month[i] != month[i-1]) {
+				numMonths++;
+			}
+		}
+		months = new int[numMonths];
+		monthOffsets = new int[numMonths+1];
+		for (int i = 0, m = 0; i < size; i++) {
+			if (i == 0 || month[i] != month[i-1]) {
+				months[m] = month[i];
+				monthOffsets[m++] = i;
+			}
+		}
+		monthOffsets[numMonths] = size;
+
+		// (month, player) index, each game is listed under both players. Entry e is
+		// game e/2 for white (even) or black (odd). Two stable sorts, by player then
+		// by month (counting), leave each month's entries ordered by (player, game)
+		monthPlayerOffsets = new int[numMonths+1];
+		playerGames = new int[size*2];
+		int [] active = new int[size*2];
+		int [] gameOffsets = new int[size*2+1];
+		int [] byPlayer = new int[size*2];
+		if (aPlayers.size() <= size*2)
+		{
+			int [] cursor = new int[aPlayers.size()+1];
+			for (int e = 0; e < size*2; e++) {
+				cursor[entryPlayer(e)+1]++;
+			}
+			for (int p = 1; p < cursor.length; p++) {
+				cursor[p] += cursor[p-1];
+			}
+			for (int e = 0; e < size*2; e++) {
+				byPlayer[cursor[entryPlayer(e)]++] = e;
+			}
+		}
+		else
+		{
+			// few games over a large index (e.g. one month of a long log), sort (player,
+			// entry) keys so the cost does not grow with the index
+			long [] keys = new long[size*2];
+			for (int e = 0; e < size*2; e++) {
+				keys[e] = toKey(entryPlayer(e), e);
+			}
+			Arrays.sort(keys);
+			for (int k = 0; k < size*2; k++) {
+				byPlayer[k] = (int) keys[k];
+			}
+		}
+		int [] gameMonth = new int[size];
+		for (int m = 0; m < numMonths; m++) {
+			Arrays.fill(gameMonth, monthOffsets[m], monthOffsets[m+1], m);
+		}
+		int [] monthCursor = new int[numMonths];
+		for (int m = 0; m < numMonths; m++) {
+			monthCursor[m] = monthOffsets[m]*2;
+		}
+		// entries go in playerGames first, then are replaced by their games
+		for (int k = 0; k < size*2; k++) {
+			int e = byPlayer[k];
+			playerGames[monthCursor[gameMonth[e >>> 1]]++] = e;
+		}
+
+		int numActive = 0;
+		for (int m = 0; m < numMonths; m++)
+		{
+			monthPlayerOffsets[m] = numActive;
+			for (int k = monthOffsets[m]*2; k < monthOffsets[m+1]*2; k++) {
+				int e = playerGames[k];
+				int player = entryPlayer(e);
+				if (k == monthOffsets[m]*2 || player != active[numActive-1]) {
+					active[numActive] = player;
+					gameOffsets[numActive++] = k;
+				}
+				playerGames[k] = e >>> 1;
+			}
+		}
+		monthPlayerOffsets[numMonths] = numActive;
+		gameOffsets[numActive] = size*2;
+		activePlayers = Arrays.copyOf(active, numActive);
+		activeGameOffsets = Arrays.copyOf(gameOffsets, numActive+1);
+	}
+
+	private int entryPlayer(int entry)
+	{
+		return ((entry & 1) == 0) ? white[entry >>> 1] : black[entry >>> 1];
+	}
+
+	private static long toKey(int high, int low)
+	{
+		return ((long)high << 32) | (low & 0xFFFFFFFFL);
+	}
+
+	public PlayerIndex getPlayerIndex()
+	{
+		return players;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+	public int getMonth(int game)
+	{
+		return month[game];
+	}
+	/**
+	 * @param game
+	 * @return dense index of the white player
+	 */
+	public int getWhite(int game)
+	{
+		return white[game];
+	}
+	/**
+	 * @param game
+	 * @return dense index of the black player
+	 */
+	public int getBlack(int game)
+	{
+		return black[game];
+	}
+	public int getWhiteId(int game)
+	{
+		return players.getId(white[game]);
+	}
+	public int getBlackId(int game)
+	{
+		return players.getId(black[game]);
+	}
+	/**
+	 * @param game
+	 * @return score for white, NaN if not known
+	 */
+	public double getScore(int game)
+	{
+		return score[game];
+	}
+
+	/**
+	 * @return number of distinct months
+	 */
+	public int numMonths()
+	{
+		return months.length;
+	}
+	public int getMonthValue(int monthIndex)
+	{
+		return months[monthIndex];
+	}
+	public int monthStart(int monthIndex)
+	{
+		return monthOffsets[monthIndex];
+	}
+	public int monthEnd(int monthIndex)
+	{
+		return monthOffsets[monthIndex+1];
+	}
+
+	/**
+	 * Range of positions of the players active in a month, use with {@link #getActivePlayer(int)}
+	 * @param monthIndex
+	 * @return
+	 */
+	public int activeStart(int monthIndex)
+	{
+		return monthPlayerOffsets[monthIndex];
+	}
+	public int activeEnd(int monthIndex)
+	{
+		return monthPlayerOffsets[monthIndex+1];
+	}
+	public int getActivePlayer(int active)
+	{
+		return activePlayers[active];
+	}
+
+	/**
+	 * Range of the games played by an active player in the month, use with {@link #getPlayerGame(int)}
+	 * @param active
+	 * @return
+	 */
+	public int playerGamesStart(int active)
+	{
+		return activeGameOffsets[active];
+	}
+	public int playerGamesEnd(int active)
+	{
+		return activeGameOffsets[active+1];
+	}
+	public int getPlayerGame(int position)
+	{
+		return playerGames[position];
+	}
+
+	/**
+	 * @return indexes of all distinct players in the store, ascending
+	 */
+	public int [] getPlayers()
+	{
+		int [] all = activePlayers.clone();
+		Arrays.sort(all);
+		int n = 0;
+		for (int i = 0; i < all.length; i++) {
+			if (n == 0 || all[i] != all[n-1]) {
+				all[n++] = all[i];
+			}
+		}
+		return Arrays.copyOf(all, n);
+	}
+
+	/**
+	 * Collects games (e.g. from a {@link GameLogReader}) and builds a store
+	 */
+	public static class Builder implements GameLogReader.Handler
+	{
+		private final PlayerIndex players;
+		private int size;
+		private int [] month;
+		private int [] white;
+		private int [] black;
+		private float [] score;
+		private boolean sorted = true;
+
+		public Builder()
+		{
+			this(new PlayerIndex());
+		}
+
+		/**
+		 * @param aPlayers - index to map player ids through, new players are added to it
+		 */
+		public Builder(PlayerIndex aPlayers)
+		{
+			this(aPlayers, 1024);
+		}
+
+		/**
+		 * @param aPlayers - index to map player ids through, new players are added to it
+		 * @param expectedGames - initial capacity (e.g. from a file header)
+		 */
+		public Builder(PlayerIndex aPlayers, int expectedGames)
+		{
+			players = aPlayers;
+			int capacity = Math.max(expectedGames, 16);
+			month = new int[capacity];
+			white = new int[capacity];
+			black = new int[capacity];
+			score = new float[capacity];
+		}
+
+		public void game(int aMonth, int aWhite, int aBlack, double aScore)
+		{
+			if (size == month.length) {
+				int capacity = size + (size >> 1);
+				month = Arrays.copyOf(month, capacity);
+				white = Arrays.copyOf(white, capacity);
+				black = Arrays.copyOf(black, capacity);
+				score = Arrays.copyOf(score, capacity);
+			}
+			if (size > 0 && aMonth < month[size-1]) {
+				sorted = false;
+			}
+			month[size] = aMonth;
+			white[size] = players.add(aWhite);
+			black[size] = players.add(aBlack);
+			score[size] = (float) aScore;
+			size++;
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		public GameStore build()
+		{
+			if (sorted) {
+				return new GameStore(players, size,
+						Arrays.copyOf(month, size),
+						Arrays.copyOf(white, size),
+						Arrays.copyOf(black, size),
+						Arrays.copyOf(score, size));
+			}
+
+			// stable sort by month
+			long [] keys = new long[size];
+			for (int i = 0; i < size; i++) {
+				keys[i] = toKey(month[i], i);
+			}
+			Arrays.sort(keys);
+			int [] m = new int[size];
+			int [] w = new int[size];
+			int [] b = new int[size];
+			float [] s = new float[size];
+			for (int i = 0; i < size; i++) {
+				int j = (int) keys[i];
+				m[i] = month[j];
+				w[i] = white[j];
+				b[i] = black[j];
+				s[i] = score[j];
+			}
+			return new GameStore(players, size, m, w, b, s);
+		}
+	}
+}
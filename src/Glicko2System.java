@@ -0,0 +1,280 @@
+import java.util.Arrays;
+
+/**
+ * The Glicko-2 System
+ * <br />
+ * Batch updates with one rating period per month. The RD of players that sit out
+ * periods grows by their volatility for every missed period, applied lazily when
+ * the player is next seen (capped at the default RD).
+ * <br />
+ * See:
+ * <ul>
+ * 	<li>http://www.glicko.net/glicko/glicko2.pdf</li>
+ * 	<li>http://en.wikipedia.org/wiki/Glicko_rating_system</li>
+ * </ul>
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class Glicko2System implements RatingSystem
+{
+	// conversion between the Glicko and Glicko-2 scales
+	public final static double SCALE = 173.7178;
+	public final static double CENTER = 1500;
+	// convergence tolerance for the volatility
+	public final static double EPSILON = 0.000001;
+
+	// parameters
+	private final double defaultRating;
+	private final double defaultRD;
+	private final double defaultVolatility;
+	private final double tau;
+
+	// data, on the Glicko-2 scale
+	private int size;
+	private double [] mu = new double[0];
+	private double [] phi = new double[0];
+	private double [] sigma = new double[0];
+	private double [] tmpMu = new double[0];
+	private double [] tmpPhi = new double[0];
+	private double [] tmpSigma = new double[0];
+	private double [] monthLastPlayed = new double[0];
+
+	public Glicko2System()
+	{
+		this(1500, 350, 0.06, 0.5);
+	}
+
+	/**
+	 * @param aDefaultRating
+	 * @param aDefaultRD
+	 * @param aDefaultVolatility
+	 * @param aTau - constrains the change in volatility over time (0.3 to 1.2)
+	 */
+	public Glicko2System(double aDefaultRating, double aDefaultRD, double aDefaultVolatility, double aTau)
+	{
+		defaultRating = aDefaultRating;
+		defaultRD = aDefaultRD;
+		defaultVolatility = aDefaultVolatility;
+		tau = aTau;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() +
+			" [" +
+			"defaultRating="+defaultRating+", " +
+			"defaultRD="+defaultRD+", " +
+			"defaultVolatility="+defaultVolatility+", " +
+			"tau="+tau+
+			"]";
+	}
+
+	public double getRating(int player)
+	{
+		return mu[player] * SCALE + CENTER;
+	}
+	public double getRd(int player)
+	{
+		return phi[player] * SCALE;
+	}
+	public double getVolatility(int player)
+	{
+		return sigma[player];
+	}
+
+	/**
+	 * Set the state of a prepared player, e.g. from another source
+	 *
+	 * @param player
+	 * @param rating
+	 * @param rd
+	 * @param volatility
+	 */
+	public void setPlayer(int player, double rating, double rd, double volatility)
+	{
+		mu[player] = (rating-CENTER) / SCALE;
+		phi[player] = rd / SCALE;
+		sigma[player] = volatility;
+	}
+
+	public void preparePlayers(PlayerIndex players)
+	{
+		int n = players.size();
+		if (n <= size) {
+			return;
+		}
+		if (n > mu.length) {
+			int capacity = Math.max(n, mu.length + (mu.length >> 1));
+			mu = Arrays.copyOf(mu, capacity);
+			phi = Arrays.copyOf(phi, capacity);
+			sigma = Arrays.copyOf(sigma, capacity);
+			tmpMu = Arrays.copyOf(tmpMu, capacity);
+			tmpPhi = Arrays.copyOf(tmpPhi, capacity);
+			tmpSigma = Arrays.copyOf(tmpSigma, capacity);
+			monthLastPlayed = Arrays.copyOf(monthLastPlayed, capacity);
+		}
+		Arrays.fill(mu, size, n, (defaultRating-CENTER) / SCALE);
+		Arrays.fill(phi, size, n, defaultRD / SCALE);
+		Arrays.fill(sigma, size, n, defaultVolatility);
+		Arrays.fill(monthLastPlayed, size, n, Double.NaN);
+		size = n;
+	}
+
+	public void updateMonth(GameStore records, int monthIndex, boolean isTest)
+	{
+		int month = records.getMonthValue(monthIndex);
+		int start = records.activeStart(monthIndex);
+		int end = records.activeEnd(monthIndex);
+
+		// compute all players from the ratings at the start of the period
+		for (int k = start; k < end; k++)
+		{
+			int player = records.getActivePlayer(k);
+			int first = records.playerGamesStart(k);
+			int n = records.playerGamesEnd(k) - first;
+			double [] opponentMu = new double[n];
+			double [] opponentPhi = new double[n];
+			double [] outcomes = new double[n];
+			for (int i = 0; i < n; i++)
+			{
+				int game = records.getPlayerGame(first+i);
+				int opponent = GlickoSystemStandalone.getOpponent(records, game, player);
+				opponentMu[i] = mu[opponent];
+				opponentPhi[i] = currentPhi(opponent, month);
+				outcomes[i] = isTest ?
+						expectation(mu[player], opponentMu[i], opponentPhi[i]) :
+						GlickoSystemStandalone.getOutcomeForPlayer(records, game, player);
+			}
+			updatePlayer(player, currentPhi(player, month), opponentMu, opponentPhi, outcomes);
+		}
+
+		// apply
+		for (int k = start; k < end; k++)
+		{
+			int player = records.getActivePlayer(k);
+			mu[player] = tmpMu[player];
+			phi[player] = tmpPhi[player];
+			sigma[player] = tmpSigma[player];
+			monthLastPlayed[player] = month;
+		}
+	}
+
+	/**
+	 * @param player
+	 * @param month
+	 * @return phi at the start of the month, grown for each period sat out
+	 */
+	protected double currentPhi(int player, double month)
+	{
+		if (Double.isNaN(monthLastPlayed[player])) {
+			return phi[player];
+		}
+		double missed = Math.max(0, month - monthLastPlayed[player] - 1);
+		double value = Math.sqrt(phi[player]*phi[player] + missed*sigma[player]*sigma[player]);
+		return Math.min(value, defaultRD / SCALE);
+	}
+
+	/**
+	 * Steps 3 to 7 of the Glicko-2 algorithm, the result goes in the tmp arrays
+	 *
+	 * @param player
+	 * @param currentPhi
+	 * @param opponentMu
+	 * @param opponentPhi
+	 * @param outcomes
+	 */
+	protected void updatePlayer(int player, double currentPhi, double [] opponentMu, double [] opponentPhi, double [] outcomes)
+	{
+		double m = mu[player];
+		double sumV = 0.0;
+		double sumDelta = 0.0;
+		for (int i = 0; i < outcomes.length; i++) {
+			double g = g(opponentPhi[i]);
+			double e = 1.0 / (1.0 + Math.exp(-g * (m-opponentMu[i])));
+			sumV += g*g * e * (1.0-e);
+			sumDelta += g * (outcomes[i]-e);
+		}
+		double v = 1.0 / sumV;
+		double delta = v * sumDelta;
+
+		double newSigma = volatility(sigma[player], currentPhi, v, delta);
+		double phiStar = Math.sqrt(currentPhi*currentPhi + newSigma*newSigma);
+		double newPhi = 1.0 / Math.sqrt(1.0/(phiStar*phiStar) + 1.0/v);
+
+		tmpMu[player] = m + newPhi*newPhi * sumDelta;
+		tmpPhi[player] = newPhi;
+		tmpSigma[player] = newSigma;
+	}
+
+	/**
+	 * Step 5, new volatility by the Illinois algorithm
+	 *
+	 * @param sigma
+	 * @param phi
+	 * @param v
+	 * @param delta
+	 * @return
+	 */
+	protected double volatility(double sigma, double phi, double v, double delta)
+	{
+		double a = Math.log(sigma*sigma);
+		double A = a;
+		double B;
+		if (delta*delta > phi*phi + v) {
+			B = Math.log(delta*delta - phi*phi - v);
+		} else {
+			int k = 1;
+			while (f(a - k*tau, a, phi, v, delta) < 0) {
+				k++;
+			}
+			B = a - k*tau;
+		}
+
+		double fA = f(A, a, phi, v, delta);
+		double fB = f(B, a, phi, v, delta);
+		while (Math.abs(B-A) > EPSILON)
+		{
+			double C = A + (A-B) * fA / (fB-fA);
+			double fC = f(C, a, phi, v, delta);
+			if (fC * fB <= 0) {
+				A = B;
+				fA = fB;
+			} else {
+				fA = fA / 2.0;
+			}
+			B = C;
+			fB = fC;
+		}
+		return Math.exp(A / 2.0);
+	}
+
+	private double f(double x, double a, double phi, double v, double delta)
+	{
+		double ex = Math.exp(x);
+		double d = phi*phi + v + ex;
+		return (ex * (delta*delta - phi*phi - v - ex)) / (2.0 * d * d) - (x-a) / (tau*tau);
+	}
+
+	public double predictResult(int white, int black)
+	{
+		return expectation(mu[white], mu[black], phi[black]);
+	}
+
+	public final static double g(double phi)
+	{
+		return 1.0 / Math.sqrt(1.0 + 3.0*phi*phi / (Math.PI*Math.PI));
+	}
+
+	/**
+	 * @param mu
+	 * @param opponentMu
+	 * @param opponentPhi
+	 * @return expected score for the player
+	 */
+	public final static double expectation(double mu, double opponentMu, double opponentPhi)
+	{
+		return 1.0 / (1.0 + Math.exp(-g(opponentPhi) * (mu-opponentMu)));
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Table driven g(RD) and expected outcome for high volume prediction.
+ * <br />
+ * g(RD) is read from a table over [minRD, maxRD] and the logistic
+ * 1/(1+exp(-x)) from a table over [-LOGISTIC_RANGE, LOGISTIC_RANGE], both with
+ * linear interpolation. Values outside the tables fall back to the exact formula.
+ * Within the tables the error of g is below 1e-8 and of the logistic below 2e-7, an
+ * expected outcome is within {@link #MAX_ERROR} of
+ * {@link GlickoSystemStandalone#estimateOutcome}.
+ * <br />
+ * Read only after construction, safe to share between threads.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public final class GlickoFastMath
+{
+	// documented bound on |fast - exact| for an expected outcome
+	public final static double MAX_ERROR = 1e-6;
+
+	public final static int G_STEPS = 4096;
+	public final static double LOGISTIC_RANGE = 16.0;
+	public final static int LOGISTIC_STEPS_PER_UNIT = 256;
+
+	private final static double [] LOGISTIC;
+	static {
+		int steps = (int) (2*LOGISTIC_RANGE*LOGISTIC_STEPS_PER_UNIT);
+		LOGISTIC = new double[steps+2];
+		for (int i = 0; i < LOGISTIC.length; i++) {
+			double x = -LOGISTIC_RANGE + (double) i / LOGISTIC_STEPS_PER_UNIT;
+			LOGISTIC[i] = 1.0 / (1.0 + Math.exp(-x));
+		}
+	}
+
+	private final double minRD;
+	private final double maxRD;
+	private final double gScale; // table steps per unit of RD
+	private final double [] gTable;
+
+	/**
+	 * @param aMinRD - smallest RD in the table (e.g. the model's minRD)
+	 * @param aMaxRD - largest RD in the table (e.g. the model's defaultRD)
+	 */
+	public GlickoFastMath(double aMinRD, double aMaxRD)
+	{
+		minRD = aMinRD;
+		maxRD = aMaxRD;
+		gScale = G_STEPS / (aMaxRD-aMinRD);
+		gTable = new double[G_STEPS+2];
+		for (int i = 0; i < gTable.length; i++) {
+			gTable[i] = exactG(aMinRD + i/gScale);
+		}
+	}
+
+	/**
+	 * @param rd
+	 * @return g(RD), on the glicko scale (without q)
+	 */
+	public double g(double rd)
+	{
+		if (!(rd >= minRD && rd <= maxRD)) {
+			return exactG(rd);
+		}
+		double position = (rd-minRD) * gScale;
+		int i = (int) position;
+		double fraction = position - i;
+		return gTable[i] + fraction * (gTable[i+1]-gTable[i]);
+	}
+
+	/**
+	 * @param x
+	 * @return 1/(1+exp(-x))
+	 */
+	public static double logistic(double x)
+	{
+		if (!(x > -LOGISTIC_RANGE && x < LOGISTIC_RANGE)) {
+			return 1.0 / (1.0 + Math.exp(-x));
+		}
+		double position = (x+LOGISTIC_RANGE) * LOGISTIC_STEPS_PER_UNIT;
+		int i = (int) position;
+		double fraction = position - i;
+		return LOGISTIC[i] + fraction * (LOGISTIC[i+1]-LOGISTIC[i]);
+	}
+
+	/**
+	 * Fast {@link GlickoSystemStandalone#estimateOutcome}
+	 *
+	 * @param rating
+	 * @param opponentRating
+	 * @param opponentRD
+	 * @return
+	 */
+	public double estimateOutcome(double rating, double opponentRating, double opponentRD)
+	{
+		return logistic(g(opponentRD) * GlickoKernel.Q * (rating-opponentRating));
+	}
+
+	private static double exactG(double rd)
+	{
+		return 1.0 / Math.sqrt(1.0 + GlickoKernel.G_FACTOR*(rd*rd));
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * Fused Glicko rating period update.
+ * <br />
+ * Computes the new rating and the new RD in a single pass over the opponents,
+ * g(RD) and E(s|r,rj,RDj) are evaluated once per opponent (rather than once for
+ * d^2 and again for the rating sum), the constants are hoisted and 10^x is taken
+ * as exp(x*ln(10)). Agrees with {@link GlickoSystemStandalone#calculateNewRating}
+ * and {@link GlickoSystemStandalone#calculateNewRD} to within floating point rounding.
+ * <br />
+ * The loop runs over flat primitive arrays with no calls other than sqrt and exp.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public final class GlickoKernel
+{
+	// q = ln(10)/400, also the factor that turns 10^(x/400) into exp(x*q)
+	public final static double Q = Math.log(10.0)/400.0;
+	public final static double Q_SQUARED = Q*Q;
+	// 3q^2/pi^2 from g(RD)
+	public final static double G_FACTOR = 3.0*Q_SQUARED/(Math.PI*Math.PI);
+
+	private GlickoKernel()
+	{}
+
+	/**
+	 * New rating and RD at the end of a period
+	 *
+	 * @param rating - rating at the start of the period
+	 * @param rd - RD at the start of the period (already decayed)
+	 * @param opponentRatings
+	 * @param opponentRDs
+	 * @param outcomes
+	 * @param n - number of games (opponents) to use from the arrays
+	 * @param minRD - floor on the new RD
+	 * @param out - receives {new rating, new RD}
+	 */
+	public static void update(
+			double rating,
+			double rd,
+			double [] opponentRatings,
+			double [] opponentRDs,
+			double [] outcomes,
+			int n,
+			double minRD,
+			double [] out)
+	{
+		double sumD = 0.0; // sum g^2 E (1-E), i.e. 1/(q^2 d^2)
+		double sumR = 0.0; // sum g (s - E)
+		for (int i = 0; i < n; i++) {
+			double rdj = opponentRDs[i];
+			double g = 1.0 / Math.sqrt(1.0 + G_FACTOR*(rdj*rdj));
+			double e = 1.0 / (1.0 + Math.exp(-g*Q*(rating-opponentRatings[i])));
+			sumD += (g*g) * e * (1.0-e);
+			sumR += g * (outcomes[i]-e);
+		}
+
+		// 1/rd^2 + 1/d^2
+		double part = (1.0/(rd*rd)) + Q_SQUARED*sumD;
+		out[0] = rating + (Q/part) * sumR;
+		double newRD = Math.sqrt(1.0/part);
+		// allow ratings to change over short time periods
+		out[1] = (newRD < minRD) ? minRD : newRD;
+	}
+
+	/**
+	 * Single game (one opponent) version of {@link #update}, same arithmetic but no
+	 * arrays, the result is written as the pending rating and rd of the player
+	 *
+	 * @param rating - rating before the game
+	 * @param rd - RD before the game (already decayed)
+	 * @param opponentRating
+	 * @param opponentRD
+	 * @param outcome
+	 * @param minRD - floor on the new RD
+	 * @param table - receives the new rating and RD
+	 * @param player - index of the player in the table
+	 */
+	public static void updateSingle(
+			double rating,
+			double rd,
+			double opponentRating,
+			double opponentRD,
+			double outcome,
+			double minRD,
+			RatingTable table,
+			int player)
+	{
+		double g = 1.0 / Math.sqrt(1.0 + G_FACTOR*(opponentRD*opponentRD));
+		double e = 1.0 / (1.0 + Math.exp(-g*Q*(rating-opponentRating)));
+		double part = (1.0/(rd*rd)) + Q_SQUARED*((g*g) * e * (1.0-e));
+		double newRD = Math.sqrt(1.0/part);
+		table.setTmp(player,
+				rating + (Q/part) * (g * (outcome-e)),
+				(newRD < minRD) ? minRD : newRD);
+	}
+}
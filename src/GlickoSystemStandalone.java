@@ -1,13 +1,31 @@
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import com.sun.management.ThreadMXBean;
 
 /**
  * The Glicko System
@@ -29,7 +47,7 @@ import java.util.Map;
  *  <li>http://en.wikipedia.org/wiki/Glicko_rating_system</li>
  *  <li>http://www.glicko.net/glicko/glicko2.doc/example.html</li>
  * </ul>
- * Compile with java 1.5 or 1.6: <pre>java -cp . GlickoSystemStandalone.java</pre>
+ * Compile with java 1.8 or later: <pre>javac -cp . *.java</pre>
  * <br />
  * Usage: <pre>java GlickoSystemStandalone training_data.csv test_data.csv</pre>
  * <br />
@@ -39,25 +57,52 @@ import java.util.Map;
  * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
  * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
  */
-public class GlickoSystemStandalone
+public class GlickoSystemStandalone implements RatingSystem
 {
-	public final static boolean PRINT_DEBUG = true;
-
-	// data
-	public Map<Integer, UserRating> ratings = new HashMap<Integer, UserRating>();
+	// default for model debug output, also load and save stats (benchmarks turn it off)
+	public static boolean PRINT_DEBUG = true;
 
 	// parameters (constraints/seeding)
-	private static double defaultRating = 1500;
-	private static double defaultRD = 350;
-	private static double minRD = 30;
+	private final double defaultRating; // 1500
+	private final double defaultRD; // 350
+	private final double minRD; // 30
 
 	// parameters used in C calculation
-	private static double defaultRDDecayTimePeriod = 30; // 30
-	private static double avgRD = 200; // 50?
+	private final double defaultRDDecayTimePeriod; // 30
+	private final double avgRD; // 200, 50?
+	private final double c;
+
+	// data, indexed by the PlayerIndex of the stores used to train and test
+	public final RatingTable ratings;
+	private PlayerIndex players = null;
+	// id of each player in the table when the storage is persistent, else null
+	private DoubleColumn playerIds = null;
+	// last month processed, NO_MONTH before training
+	private int lastMonth = NO_MONTH;
+	public final static int NO_MONTH = Integer.MIN_VALUE;
+
+	private boolean debug = PRINT_DEBUG;
+	// wall time of each month processed
+	private final MonthMetrics metrics = new MonthMetrics();
+	// table driven predictions, null for exact
+	private GlickoFastMath fastMath = null;
 
 	private boolean updateRatingsDuringtest = false; // false
 	private boolean updateAfterEveryGame = false; // false
 
+	// parallel batch and per-game updates, null for sequential
+	private ForkJoinPool pool = null;
+	private WaveSchedule waves = null;
+	// months with fewer active players are processed sequentially, also the split size
+	public final static int PARALLEL_GRAIN = 2048;
+	private int parallelGrain = PARALLEL_GRAIN;
+	// games per parallel chunk of a prediction batch
+	public final static int PREDICT_GRAIN = 1 << 14;
+
+	// rating and rd used for players that are not in the rating table
+	private double priorRating;
+	private double priorRD;
+
 	@Override
 	public String toString() {
 		return super.toString() +
@@ -68,13 +113,113 @@ public class GlickoSystemStandalone
 			"minRD="+minRD+", " +
 			"avgRD="+avgRD+", " +
 			"updateRatingsDuringtest="+updateRatingsDuringtest+", " +
-			"updateAfterEveryGame="+updateAfterEveryGame+
+			"updateAfterEveryGame="+updateAfterEveryGame+", " +
+			"parallelism="+((pool==null) ? 1 : pool.getParallelism())+
 			"]";
 	}
 
 
 	private GlickoSystemStandalone()
-	{}
+	{
+		this(1500, 350, 30, 30, 200);
+	}
+
+	private GlickoSystemStandalone(
+			double aDefaultRating,
+			double aDefaultRD,
+			double aMinRD,
+			double aDefaultRDDecayTimePeriod,
+			double aAvgRD)
+	{
+		this(aDefaultRating, aDefaultRD, aMinRD, aDefaultRDDecayTimePeriod, aAvgRD, ColumnStorage.HEAP);
+	}
+
+	private GlickoSystemStandalone(
+			double aDefaultRating,
+			double aDefaultRD,
+			double aMinRD,
+			double aDefaultRDDecayTimePeriod,
+			double aAvgRD,
+			ColumnStorage storage)
+	{
+		defaultRating = aDefaultRating;
+		defaultRD = aDefaultRD;
+		minRD = aMinRD;
+		defaultRDDecayTimePeriod = aDefaultRDDecayTimePeriod;
+		avgRD = aAvgRD;
+		c = calculateC();
+		priorRating = defaultRating;
+		priorRD = defaultRD;
+		ratings = new RatingTable(defaultRating, defaultRD, storage);
+
+		// persistent storage also keeps the player ids, restore the index to match the table
+		if (storage.isPersistent())
+		{
+			playerIds = storage.column("playerId");
+			if (ratings.size() > 0)
+			{
+				players = new PlayerIndex(ratings.size());
+				for (int i = 0; i < ratings.size(); i++) {
+					players.add((int) playerIds.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * A model with its own parameters, many can be trained at once
+	 *
+	 * @param updateAfterEveryGame - per-game (true) or batch (false) rating periods
+	 * @param updateRatingsDuringtest
+	 * @param defaultRating
+	 * @param defaultRD
+	 * @param minRD
+	 * @param defaultRDDecayTimePeriod
+	 * @param avgRD
+	 * @return
+	 */
+	public static GlickoSystemStandalone getInstance(
+			boolean updateAfterEveryGame,
+			boolean updateRatingsDuringtest,
+			double defaultRating,
+			double defaultRD,
+			double minRD,
+			double defaultRDDecayTimePeriod,
+			double avgRD)
+	{
+		return getInstance(updateAfterEveryGame, updateRatingsDuringtest, defaultRating, defaultRD, minRD, defaultRDDecayTimePeriod, avgRD, ColumnStorage.HEAP);
+	}
+
+	/**
+	 * A model over the given storage for the rating table, e.g. off the heap for very
+	 * large populations. With persistent (mapped) storage the ratings and player index
+	 * of the last run are restored, load further data with {@link #getPlayerIndex()}.
+	 *
+	 * @param updateAfterEveryGame - per-game (true) or batch (false) rating periods
+	 * @param updateRatingsDuringtest
+	 * @param defaultRating
+	 * @param defaultRD
+	 * @param minRD
+	 * @param defaultRDDecayTimePeriod
+	 * @param avgRD
+	 * @param storage
+	 * @return
+	 */
+	public static GlickoSystemStandalone getInstance(
+			boolean updateAfterEveryGame,
+			boolean updateRatingsDuringtest,
+			double defaultRating,
+			double defaultRD,
+			double minRD,
+			double defaultRDDecayTimePeriod,
+			double avgRD,
+			ColumnStorage storage)
+	{
+		GlickoSystemStandalone e = new GlickoSystemStandalone(defaultRating, defaultRD, minRD, defaultRDDecayTimePeriod, avgRD, storage);
+		e.updateAfterEveryGame = updateAfterEveryGame;
+		e.updateRatingsDuringtest = updateRatingsDuringtest;
+		return e;
+	}
 
 	public static GlickoSystemStandalone getInstanceBatchAndUpdateDuringTest()
 	{
@@ -105,6 +250,111 @@ public class GlickoSystemStandalone
 		return e;
 	}
 
+	/**
+	 * Split the players of each batch rating period across a fork-join pool.
+	 * Players are computed from the frozen ratings of the previous period so
+	 * the results are identical to the sequential run. Per-game months are
+	 * run as waves of games that share no players, see {@link WaveSchedule}.
+	 *
+	 * @param aPool - pool to use, or null to run sequentially
+	 */
+	public void setPool(ForkJoinPool aPool)
+	{
+		pool = aPool;
+	}
+
+	/**
+	 * @param grain - fewest players (or games of a wave) split across the pool,
+	 * PARALLEL_GRAIN by default
+	 */
+	public void setParallelGrain(int grain)
+	{
+		if (grain < 1) {
+			throw new IllegalArgumentException("Grain must be at least 1: " + grain);
+		}
+		parallelGrain = grain;
+	}
+
+	/**
+	 * Opt in to table driven g(RD) and logistic for predictions (predictResult and
+	 * the batch and as-of variants), within {@link GlickoFastMath#MAX_ERROR} of the
+	 * exact predictions. Training always uses the exact formulas.
+	 *
+	 * @param enabled
+	 */
+	public void setFastMath(boolean enabled)
+	{
+		fastMath = enabled ? new GlickoFastMath(minRD, defaultRD) : null;
+	}
+	public boolean isFastMath()
+	{
+		return fastMath != null;
+	}
+
+	/**
+	 * Expected outcome for predictions, exact or fast math
+	 */
+	protected double predictOutcome(double rating, double opponentRating, double opponentRD)
+	{
+		GlickoFastMath fast = fastMath;
+		return (fast == null) ?
+				estimateOutcome(rating, opponentRating, opponentRD) :
+				fast.estimateOutcome(rating, opponentRating, opponentRD);
+	}
+
+	/**
+	 * @param aDebug - print per month statistics (defaults to PRINT_DEBUG)
+	 */
+	public void setDebug(boolean aDebug)
+	{
+		debug = aDebug;
+	}
+
+	public double getDefaultRating()
+	{
+		return defaultRating;
+	}
+	public double getDefaultRD()
+	{
+		return defaultRD;
+	}
+	public double getMinRD()
+	{
+		return minRD;
+	}
+	public double getDefaultRDDecayTimePeriod()
+	{
+		return defaultRDDecayTimePeriod;
+	}
+	public double getAvgRD()
+	{
+		return avgRD;
+	}
+	public boolean isUpdateRatingsDuringtest()
+	{
+		return updateRatingsDuringtest;
+	}
+	public boolean isUpdateAfterEveryGame()
+	{
+		return updateAfterEveryGame;
+	}
+	/**
+	 * @return index the ratings were trained against, null before training. It may
+	 * 	hold more players than are rated (e.g. a test store loaded through it), the
+	 * 	rated players are [0, ratings.size())
+	 */
+	public PlayerIndex getPlayerIndex()
+	{
+		return players;
+	}
+	/**
+	 * @return the last month processed, NO_MONTH if none
+	 */
+	public int getLastMonth()
+	{
+		return lastMonth;
+	}
+
 	/**
 	 * calculate the current RD from the old RD
 	 *
@@ -114,7 +364,7 @@ public class GlickoSystemStandalone
 	 * 	(e.g., if the player competed in the most recent rating period, )
 	 * @return
 	 */
-	public final static double calculateCurrentRD(
+	public final double calculateCurrentRD(
 			double RDold,
 			double c,
 			double t)
@@ -123,12 +373,70 @@ public class GlickoSystemStandalone
 		return Math.min(value, defaultRD);
 	}
 
+	/**
+	 * Effective RD of a player as of a month, the decay since the player last played is
+	 * computed on the fly so nothing is written. Months before the player's last game
+	 * are answered from the rating history (stored as floats) when it covers them.
+	 *
+	 * @param player - dense index
+	 * @param month - month value (not index)
+	 * @return the RD an update in the month would start from
+	 * @throws IllegalArgumentException for a month before the player's last game that
+	 * the history does not cover
+	 */
+	public double getRdAsOf(int player, double month)
+	{
+		if (month < ratings.getMonthLastPlayed(player))
+		{
+			int entry = ratings.findHistory(player, month);
+			if (entry == RatingHistory.NONE) {
+				return defaultRD;
+			}
+			RatingHistory history = ratings.getHistory();
+			return calculateCurrentRD(history.getRd(entry), c, 1+(month-history.getMonth(entry)));
+		}
+		return calculateCurrentRD(ratings.getRd(player), c, ratings.getNumTimePeriodsSinceLastGame(player, month));
+	}
+
+	/**
+	 * Ratings do not decay, as of a month is the rating after the last period played by
+	 * then (from the rating history for months before the player's last game)
+	 *
+	 * @param player - dense index
+	 * @param month - month value (not index)
+	 * @return
+	 * @throws IllegalArgumentException for a month before the player's last game that
+	 * the history does not cover
+	 */
+	public double getRatingAsOf(int player, double month)
+	{
+		if (month < ratings.getMonthLastPlayed(player))
+		{
+			int entry = ratings.findHistory(player, month);
+			return (entry == RatingHistory.NONE) ? defaultRating : ratings.getHistory().getRating(entry);
+		}
+		return ratings.getRating(player);
+	}
+
+	/**
+	 * {@link #predictResult(int, int)} with the ratings and black RD as of a month
+	 *
+	 * @param white - dense index of the white player
+	 * @param black - dense index of the black player
+	 * @param month - month value (not index)
+	 * @return expected score for white
+	 */
+	public double predictResultAsOf(int white, int black, double month)
+	{
+		return predictOutcome(getRatingAsOf(white, month), getRatingAsOf(black, month), getRdAsOf(black, month));
+	}
+
 	/**
 	 * Calculate the decayed RD for an average RD, c, and a default decay time period
 	 * @param c
 	 * @return
 	 */
-	public final static double testCValue(double c)
+	public final double testCValue(double c)
 	{
 		return Math.sqrt((avgRD*avgRD) + (c*c)*defaultRDDecayTimePeriod);
 	}
@@ -137,7 +445,7 @@ public class GlickoSystemStandalone
 	 * calculate C for a given default RD, average RD, and default RD decay time period
 	 * @return
 	 */
-	public final static double calculateC()
+	public final double calculateC()
 	{
 		// sqrt [(350^2 - 50^2)/30]
 		return Math.sqrt(((defaultRD*defaultRD)-(avgRD*avgRD))/defaultRDDecayTimePeriod);
@@ -183,7 +491,7 @@ public class GlickoSystemStandalone
 	 * @param opponentRDs
 	 * @return
 	 */
-	public final static double calculateNewRD(
+	public final double calculateNewRD(
 			double rating,
 			double rd,
 			double [] opponentRatings,
@@ -278,6 +586,7 @@ public class GlickoSystemStandalone
 	     * */
 	    double rating = 1500;
 	    double rd = 200;
+	    GlickoSystemStandalone g = new GlickoSystemStandalone();
 
 	    // correct
 	    System.out.println("Q: expect=0.0057565, got=" + calculateQ());
@@ -294,316 +603,1945 @@ public class GlickoSystemStandalone
 
 	    System.out.println("Rating: expect=1464, got: " + calculateNewRating(
 			    rating, rd, new double[]{1400,1550,1700}, new double[]{30, 100, 300}, new double[]{1,0,0}));
-	    System.out.println("RD: expect=151.4, got: " + calculateNewRD(rating, rd, new double[]{1400,1550,1700}, new double[]{30, 100, 300}));
-
-	    System.out.println("C (63.2): expected=350, got="+testCValue(63.2));
-	    System.out.println(calculateC());
+	    System.out.println("RD: expect=151.4, got: " + g.calculateNewRD(rating, rd, new double[]{1400,1550,1700}, new double[]{30, 100, 300}));
+
+	    System.out.println("C (63.2): expected=350, got="+g.testCValue(63.2));
+	    System.out.println(g.calculateC());
+
+	    double [] out = new double[2];
+	    GlickoKernel.update(rating, rd, new double[]{1400,1550,1700}, new double[]{30, 100, 300}, new double[]{1,0,0}, 3, g.getMinRD(), out);
+	    // the paper rounds to 1464 and 151.4
+	    check("Fused rating vs paper: difference", Math.abs(out[0] - 1464), 0.5);
+	    check("Fused RD vs paper: difference", Math.abs(out[1] - 151.4), 0.05);
+	    check("Elo vs hand computed: max difference", testElo(), 1e-12);
+	    // the paper rounds its intermediate values (1464.05 unrounded)
+	    double [] glicko2 = testGlicko2();
+	    check("Glicko-2 rating vs paper: difference", Math.abs(glicko2[0] - 1464.06), 0.05);
+	    check("Glicko-2 RD vs paper: difference", Math.abs(glicko2[1] - 151.52), 0.01);
+	    check("Glicko-2 volatility vs paper: difference", Math.abs(glicko2[2] - 0.05999), 0.00001);
+	    check("Evaluation vs hand computed: max difference", testEvaluation(), 1e-12);
+	    check("Game store vs brute force grouping: mismatches", testGameStore(20000), 0);
+	    check("Fused vs calculateNewRating/calculateNewRD: max relative error", g.testKernel(100000), 1e-12);
+	    check("Per-game updates: bytes/game", testPerGameAllocation(200000), 0);
+	    check("Running stats vs full scan: max difference", testRunningStats(20000), 1e-9);
+	    check("Parallel vs sequential training: mismatches", testParallelTraining(20000), 0);
+	    check("Batch by id vs predictResult: max difference", testPredictBatch(100000), 0);
+	    check("Leaderboard vs sort: mismatches", testLeaderboard(20000), 0);
+	    check("Incremental vs full training: max difference", testIncrementalTraining(20000), 0);
+	    check("Fast math vs exact: max difference", testFastMath(1000000), GlickoFastMath.MAX_ERROR);
+	    try {
+	    	check("Writer vs expected text: mismatches", testGameLogWriter(300000), 0);
+	    	check("Binary log round trip: mismatches", testBinaryGameLog(20000), 0);
+	    	check("Off-heap and mapped vs heap: mismatches", testColumnStorage(20000), 0);
+	    	check("Snapshot round trip: mismatches", testSnapshot(20000), 0);
+	    	check("Rating server vs training: max difference", testRatingServer(20000), 0);
+	    	check("Out of core vs in memory training: max difference", testExternalTraining(20000), 0);
+	    	check("Rating history vs recorded states: max difference", testRatingHistory(20000), 0);
+	    	// the history keeps floats
+	    	check("As of earlier months vs recorded: max difference", testAsOf(20000), 1e-3);
+	    } catch (Exception e) {
+	    	e.printStackTrace();
+	    	failedChecks++;
+	    }
+	    if (failedChecks > 0) {
+	    	throw new IllegalStateException(failedChecks + " self checks failed");
+	    }
     }
 
+	// self checks that failed since the class loaded
+	private static int failedChecks;
+
 	/**
-	 * Usage: java GlickoSystemStandalone training_data.csv test_data.csv
-	 * @param args
-	 * @throws Exception
+	 * Print a self check and count it as failed if the value is above the tolerance
+	 * (or NaN)
+	 *
+	 * @param label
+	 * @param value - difference or count, 0 is exact
+	 * @param tolerance
 	 */
-	public static void main(String[] args) throws Exception
+	protected static void check(String label, double value, double tolerance)
 	{
-		// most basic validation
-		if (args.length != 2) {
-			System.out.println("Usage: java GlickoSystemStandalone training_data.csv test_data.csv");
-			System.exit(1);
+		boolean passed = value <= tolerance;
+		System.out.println(label + "=" + value + ((tolerance == 0) ? " (expect 0)" : " (tolerance " + tolerance + ")") + (passed ? "" : " FAILED"));
+		if (!passed) {
+			failedChecks++;
 		}
-		// train
-		List<double[]> training = loadDataset(new File(args[0]));
-		GlickoSystemStandalone g = new GlickoSystemStandalone();
-		System.out.println("Model: " + g);
-		g.trainModel(training);
+	}
 
-		// generate submission file
-		List<double[]> test = loadDataset(new File(args[1]));
-		double [] predictions = g.batchPredictions(test);
-		// save
-		saveDataset(test, predictions, new File("submission.csv"));
-		System.out.println("Wrote file: submission.csv, done.");
+	/**
+	 * Shared fixture for the self checks: random games between two different players
+	 * in random months, the same games for the same arguments
+	 *
+	 * @param numGames
+	 * @param numMonths - months 1..numMonths
+	 * @param numPlayers - ids firstId..firstId+numPlayers-1
+	 * @param firstId
+	 * @param handler - receives the games in the order drawn (not by month)
+	 */
+	protected static void randomGames(int numGames, int numMonths, int numPlayers, int firstId, GameLogReader.Handler handler)
+	{
+		Random r = new Random(1);
+		for (int i = 0; i < numGames; i++) {
+			int white = r.nextInt(numPlayers);
+			int month = 1 + r.nextInt(numMonths);
+			int black = (white + 1 + r.nextInt(numPlayers-1)) % numPlayers;
+			handler.game(month, firstId + white, firstId + black, r.nextInt(3) / 2.0);
+		}
 	}
 
+	/**
+	 * @param numGames
+	 * @param numMonths
+	 * @param numPlayers - ids 0..numPlayers-1
+	 * @return random games in a store of their own
+	 */
+	protected static GameStore randomGames(int numGames, int numMonths, int numPlayers)
+	{
+		GameStore.Builder builder = new GameStore.Builder();
+		randomGames(numGames, numMonths, numPlayers, 0, builder);
+		return builder.build();
+	}
 
-	public double [] batchPredictions(List<double[]> recordSet)
+	/**
+	 * Build stores of random games (one over an index that already holds many other
+	 * players) and compare their month and (month, player) indexes with a brute
+	 * force grouping of the games as added
+	 *
+	 * @param numGames
+	 * @return number of months, games or active players that differ
+	 */
+	public static int testGameStore(int numGames)
 	{
-		// prepare predictions
-		double [] predictions = new double[recordSet.size()];
+		final List<int []> added = new ArrayList<int []>();
+		randomGames(numGames, 24, 2000, 0, new GameLogReader.Handler() {
+			public void game(int month, int white, int black, double score) {
+				added.add(new int[] {month, white, black, (int) (score * 2)});
+			}
+		});
+		PlayerIndex crowded = new PlayerIndex();
+		for (int i = 0; i < 100000; i++) {
+			crowded.add(-1 - i);
+		}
 
-		if (updateRatingsDuringtest)
+		int mismatches = 0;
+		for (int pass = 0; pass < 2; pass++)
 		{
-			// process months
-			Map<Short,List<double[]>> monthMap = getGamesByMonth(recordSet);
-			List<Short> monthList = getOrderedMonthList(monthMap);
-			for(Short month : monthList)
-			{
-				// get all records for period
-				List<double[]> records = monthMap.get(month);
+			GameStore.Builder builder = (pass == 0) ? new GameStore.Builder() : new GameStore.Builder(crowded);
+			randomGames(numGames, 24, 2000, 0, builder);
+			GameStore store = builder.build();
+			PlayerIndex players = store.getPlayerIndex();
+			if (store.size() != added.size() || store.monthStart(0) != 0 || store.monthEnd(store.numMonths()-1) != store.size()) {
+				mismatches++;
+			}
 
-				if (updateAfterEveryGame) {
-					perGameUpdatesForUserMonths(month, records, true);
-				} else {
-					batchUpdatesForUserMonths(month, records, true);
+			for (int m = 0; m < store.numMonths(); m++)
+			{
+				int month = store.getMonthValue(m);
+				if (m > 0 && (month <= store.getMonthValue(m-1) || store.monthStart(m) != store.monthEnd(m-1))) {
+					mismatches++;
+				}
+				// the games of the month in the order added
+				int i = store.monthStart(m);
+				for (int [] game : added)
+				{
+					if (game[0] != month) {
+						continue;
+					}
+					if (i >= store.monthEnd(m) || store.getMonth(i) != month ||
+							store.getWhiteId(i) != game[1] || store.getBlackId(i) != game[2] ||
+							store.getScore(i) != game[3] / 2.0 ||
+							players.getId(store.getWhite(i)) != game[1] || players.getId(store.getBlack(i)) != game[2]) {
+						mismatches++;
+					}
+					i++;
+				}
+				if (i != store.monthEnd(m)) {
+					mismatches++;
 				}
 
-				printStats();
+				// players active in the month (ascending) and their games (ascending)
+				TreeMap<Integer, List<Integer>> byPlayer = new TreeMap<Integer, List<Integer>>();
+				for (int j = store.monthStart(m); j < store.monthEnd(m); j++) {
+					for (int player : new int[] {store.getWhite(j), store.getBlack(j)}) {
+						if (!byPlayer.containsKey(player)) {
+							byPlayer.put(player, new ArrayList<Integer>());
+						}
+						byPlayer.get(player).add(j);
+					}
+				}
+				if (store.activeEnd(m) - store.activeStart(m) != byPlayer.size()) {
+					mismatches++;
+					continue;
+				}
+				int k = store.activeStart(m);
+				for (Map.Entry<Integer, List<Integer>> entry : byPlayer.entrySet())
+				{
+					List<Integer> games = entry.getValue();
+					if (store.getActivePlayer(k) != entry.getKey() || store.playerGamesEnd(k) - store.playerGamesStart(k) != games.size()) {
+						mismatches++;
+					} else {
+						for (int j = 0; j < games.size(); j++) {
+							if (store.getPlayerGame(store.playerGamesStart(k) + j) != games.get(j)) {
+								mismatches++;
+							}
+						}
+					}
+					k++;
+				}
 			}
-		} else {
-			// calculate
-
-			for (int i = 0; i < predictions.length; i++) {
-				double [] record = recordSet.get(i);
-				predictions[i] = predictResult(record);
-	        }
 		}
-
-		return predictions;
+		return mismatches;
 	}
 
-
-	public double predictResult(double [] record)
-	{
-		// basic idea...
-		UserRating white = ratings.get(new Integer((int)record[1]));
-		UserRating black = ratings.get(new Integer((int)record[2]));
-		// estimate
-		return estimateOutcome(white.rating, black.rating, black.rd);
-	}
-
-	public void trainModel(List<double[]> trainingSet)
+	/**
+	 * Write integers and decimals (the submission's 9 places among them) with a
+	 * GameLogWriter and compare the lines with the expected text, then write enough
+	 * random predictions to flush the buffer several times and check each line parses
+	 * back to within half of the last place
+	 *
+	 * @param numPredictions
+	 * @return number of lines that differ
+	 * @throws IOException
+	 */
+	public static int testGameLogWriter(int numPredictions)
+		throws IOException
 	{
-		// prepare all users
-		Map<Integer,List<double[]>> userMap = getGamesByUser(trainingSet);
-		List<Integer> userList = getOrderedUserList(userMap);
-		for(Integer userId : userList)
-		{
-			ratings.put(userId, new UserRating(userId));
+		long [] integers = {0, 42, -7, Integer.MAX_VALUE, Long.MIN_VALUE};
+		String [] integerText = {"0", "42", "-7", "2147483647", "-9223372036854775808"};
+		double [] decimals = {0.5, 1.0, 0.0, -0.25, 0.9999999996, 0.0000000004, -1e-12, 0.123456789, 12.5, 2.5, Double.NaN, 1e9};
+		int [] places = {9, 9, 9, 9, 9, 9, 9, 9, 1, 0, 9, 9};
+		String [] decimalText = {"0.500000000", "1.000000000", "0.000000000", "-0.250000000", "1.000000000", "0.000000000",
+				"0.000000000", "0.123456789", "12.5", "3", "NaN", "1.0E9"};
+		double [] predictions = new double[numPredictions];
+		Random r = new Random(1);
+		for (int i = 0; i < numPredictions; i++) {
+			predictions[i] = r.nextDouble();
 		}
 
-		// process months
-		Map<Short,List<double[]>> monthMap = getGamesByMonth(trainingSet);
-		List<Short> monthList = getOrderedMonthList(monthMap);
-		for(Short month : monthList)
-		{
-			// get all records for period
-			List<double[]> records = monthMap.get(month);
-
-			if (updateAfterEveryGame) {
-				perGameUpdatesForUserMonths(month, records, false);
-			} else {
-				batchUpdatesForUserMonths(month, records, false);
+		File file = File.createTempFile("chessml-writer", ".csv");
+		try {
+			GameLogWriter writer = new GameLogWriter(file);
+			try {
+				for (long value : integers) {
+					writer.write(value).write('\n');
+				}
+				for (int i = 0; i < decimals.length; i++) {
+					writer.write(decimals[i], places[i]).write('\n');
+				}
+				for (double p : predictions) {
+					writer.write(p, PREDICTION_PLACES).write('\n');
+				}
+			} finally {
+				writer.close();
 			}
 
-			printStats();
+			List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+			int mismatches = Math.abs(lines.size() - (integers.length + decimals.length + numPredictions));
+			int line = 0;
+			for (int i = 0; i < integers.length && line < lines.size(); i++) {
+				if (!lines.get(line++).equals(integerText[i])) {
+					mismatches++;
+				}
+			}
+			for (int i = 0; i < decimals.length && line < lines.size(); i++) {
+				if (!lines.get(line++).equals(decimalText[i])) {
+					mismatches++;
+				}
+			}
+			for (int i = 0; i < numPredictions && line < lines.size(); i++) {
+				String text = lines.get(line++);
+				if (!text.matches("[01]\\.[0-9]{9}") || Math.abs(Double.parseDouble(text) - predictions[i]) > 5e-10 + 1e-15) {
+					mismatches++;
+				}
+			}
+			return mismatches;
+		} finally {
+			file.delete();
 		}
 	}
 
-	public void perGameUpdatesForUserMonths(Short month, List<double[]> records, boolean isTest)
+	/**
+	 * One game between two new Elo players, the winner takes K/2 from the loser
+	 *
+	 * @return the largest absolute difference from the hand computed ratings and
+	 * prediction
+	 */
+	public static double testElo()
 	{
-		// process all games in the month in turn
-		for(double[] record : records)
-		{
-			UserRating white = ratings.get(new Integer((int)record[1]));
-			UserRating black = ratings.get(new Integer((int)record[2]));
+		GameStore.Builder builder = new GameStore.Builder();
+		builder.game(1, 1, 2, 1.0);
+		GameStore games = builder.build();
+		EloSystem elo = new EloSystem(1500, 32);
+		elo.trainModel(games);
+		int white = games.getPlayerIndex().getIndex(1);
+		int black = games.getPlayerIndex().getIndex(2);
+		double error = Math.max(Math.abs(elo.getRating(white) - 1516), Math.abs(elo.getRating(black) - 1484));
+		return Math.max(error, Math.abs(elo.predictResult(white, black) - 1.0 / (1.0 + Math.pow(10.0, -32 / 400.0))));
+	}
 
-			// use outcome for user in record or estimate
-			double whiteOutcome = (isTest) ? estimateOutcome(white.rating, black.rating, black.rd) : getOutcomeForPlayer(record, white.userId);
-			double blackOutcome = (isTest) ? estimateOutcome(black.rating, white.rating, white.rd) : getOutcomeForPlayer(record, black.userId);
+	/**
+	 * The example of the Glicko-2 paper (http://www.glicko.net/glicko/glicko2.pdf):
+	 * a player on 1500, RD 200 and volatility 0.06 beats 1400 (RD 30) then loses to
+	 * 1550 (RD 100) and 1700 (RD 300) in one period, tau 0.5
+	 *
+	 * @return {rating, RD, volatility} of the player after the period, the paper
+	 * gives 1464.06, 151.52 and 0.05999
+	 */
+	public static double [] testGlicko2()
+	{
+		GameStore.Builder builder = new GameStore.Builder();
+		builder.game(1, 1, 2, 1.0);
+		builder.game(1, 1, 3, 0.0);
+		builder.game(1, 1, 4, 0.0);
+		GameStore games = builder.build();
+		PlayerIndex players = games.getPlayerIndex();
+		Glicko2System glicko2 = new Glicko2System(1500, 350, 0.06, 0.5);
+		glicko2.preparePlayers(players);
+		glicko2.setPlayer(players.getIndex(1), 1500, 200, 0.06);
+		glicko2.setPlayer(players.getIndex(2), 1400, 30, 0.06);
+		glicko2.setPlayer(players.getIndex(3), 1550, 100, 0.06);
+		glicko2.setPlayer(players.getIndex(4), 1700, 300, 0.06);
+		glicko2.updateMonth(games, 0, false);
+		int player = players.getIndex(1);
+		return new double[] {glicko2.getRating(player), glicko2.getRd(player), glicko2.getVolatility(player)};
+	}
 
-			// update white
-			updateRatingsForUser(white.userId,
-					month,
-					new double[]{black.rating},
-					new double[]{black.rd},
-					new double[]{whiteOutcome});
-			// update black
-			updateRatingsForUser(black.userId,
-					month,
-					new double[]{white.rating},
-					new double[]{white.rd},
-					new double[]{blackOutcome});
-			// apply
-			applyRatingsAndRds(white.userId, month);
-			applyRatingsAndRds(black.userId, month);
+	/**
+	 * Score three games of one month by hand: 1 beats 2 (predicted 0.75), 2 draws 3
+	 * (0.4) and 3 loses to 1 (0.005, clipped to 0.01 for the deviance)
+	 *
+	 * @return the largest absolute difference in rmse or deviance
+	 */
+	public static double testEvaluation()
+	{
+		GameStore.Builder builder = new GameStore.Builder();
+		builder.game(1, 1, 2, 1.0);
+		builder.game(1, 2, 3, 0.5);
+		builder.game(1, 3, 1, 0.0);
+		GameStore games = builder.build();
+		double [] predictions = new double[games.size()];
+		for (int i = 0; i < games.size(); i++) {
+			predictions[i] = (games.getWhiteId(i) == 1) ? 0.75 : (games.getWhiteId(i) == 2) ? 0.4 : 0.005;
 		}
-
+		// player totals: 1 scored 2 for 1.745, 2 scored 0.5 for 0.65, 3 scored 0.5 for 0.605
+		double rmse = Math.sqrt((0.255*0.255 + 0.15*0.15 + 0.105*0.105) / 3);
+		double deviance = -(Math.log10(0.75) + 0.5*Math.log10(0.4) + 0.5*Math.log10(0.6) + Math.log10(0.99)) / 3;
+		return Math.max(Math.abs(Evaluation.monthlyPlayerRmse(games, 0, 1, predictions) - rmse),
+				Math.abs(Evaluation.binomialDeviance(games, 0, 1, predictions) - deviance));
 	}
 
-	public static double getOutcomeForPlayer(double [] record, double userId)
+	/**
+	 * Write random games with ids spread over the int range (so deltas are large and
+	 * negative) and a month of missing scores to a binary log, then read it back whole
+	 * and one block at a time and compare every column
+	 *
+	 * @param numGames
+	 * @return number of games, blocks or values that differ
+	 * @throws IOException
+	 */
+	public static int testBinaryGameLog(int numGames)
+		throws IOException
 	{
-		// white
-		if(record[1]==userId) {
-			return record[3];
+		final GameStore.Builder builder = new GameStore.Builder();
+		randomGames(numGames, 24, 2000, 0, new GameLogReader.Handler() {
+			public void game(int month, int white, int black, double score) {
+				builder.game(month, white * 1000003 - 1000000000, black * 1000003 - 1000000000, score);
+			}
+		});
+		for (int i = 0; i < 100; i++) {
+			builder.game(25, i, Integer.MAX_VALUE - i, Double.NaN);
 		}
+		GameStore store = builder.build();
 
-		// black
-		return 1.0-record[3];
+		int mismatches = 0;
+		File file = File.createTempFile("chessml-binary", ".bin");
+		try {
+			BinaryGameLog.write(store, file);
+			GameStore loaded = BinaryGameLog.load(file, new PlayerIndex());
+			if (loaded.size() != store.size() || loaded.numMonths() != store.numMonths()) {
+				return Integer.MAX_VALUE;
+			}
+			for (int i = 0; i < store.size(); i++) {
+				if (loaded.getMonth(i) != store.getMonth(i) || loaded.getWhiteId(i) != store.getWhiteId(i) ||
+						loaded.getBlackId(i) != store.getBlackId(i) || Double.compare(loaded.getScore(i), store.getScore(i)) != 0) {
+					mismatches++;
+				}
+			}
+
+			BinaryGameLog.Reader reader = new BinaryGameLog.Reader(file);
+			try {
+				if (reader.numBlocks() != store.numMonths() || reader.numGames() != store.size()) {
+					mismatches++;
+				}
+				for (int m = 0; m < Math.min(reader.numBlocks(), store.numMonths()); m++)
+				{
+					if (reader.getMonth(m) != store.getMonthValue(m) || reader.findBlock(store.getMonthValue(m)) != m ||
+							reader.getNumGames(m) != store.monthEnd(m) - store.monthStart(m)) {
+						mismatches++;
+					}
+					GameStore.Builder block = new GameStore.Builder();
+					reader.readBlocks(m, m+1, block);
+					GameStore month = block.build();
+					if (month.size() != store.monthEnd(m) - store.monthStart(m)) {
+						mismatches++;
+						continue;
+					}
+					for (int i = 0; i < month.size(); i++) {
+						int j = store.monthStart(m) + i;
+						if (month.getMonth(i) != store.getMonth(j) || month.getWhiteId(i) != store.getWhiteId(j) ||
+								month.getBlackId(i) != store.getBlackId(j) || Double.compare(month.getScore(i), store.getScore(j)) != 0) {
+							mismatches++;
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			file.delete();
+		}
+		return mismatches;
 	}
 
 	/**
-	 * Batch updates - process all games for a user month then update ratings
+	 * Train a month at a time with a history from the start and record the ratings
+	 * and rds as of each month, then ask for the same months after training (from the
+	 * history for players who played since). A model without a history must refuse
+	 * those months and one with a history enabled part way must either agree or refuse
+	 * (per-game and batch)
 	 *
-	 * @param month
-	 * @param records
+	 * @param numGames
+	 * @return the largest absolute difference in rating or rd, infinite if a month is
+	 * answered or refused when it should not be
 	 */
-	public void batchUpdatesForUserMonths(Short month, List<double[]> records, boolean isTest)
+	public static double testAsOf(int numGames)
 	{
-		// process all records for the period by user
-		Map<Integer,List<double[]>> userMap = getGamesByUser(records);
-		// process each user for the period
-		for(Integer userId : userMap.keySet())
+		GameStore games = randomGames(numGames, 24, 2000);
+		int n = games.getPlayerIndex().size();
+		double maxError = 0.0;
+		for (int mode = 0; mode < 2; mode++)
 		{
-			UserRating user = ratings.get(userId);
-			List<double[]> userPeriodRecords = userMap.get(userId);
-			double [] outcomes = new double[userPeriodRecords.size()];
-			for (int i = 0; i < outcomes.length; i++)
+			GlickoSystemStandalone g = (mode == 0) ? getInstanceBatchAndNoUpdateDuringTest() : getInstanceNoBatchAndNoUpdateDuringTest();
+			GlickoSystemStandalone partWay = (mode == 0) ? getInstanceBatchAndNoUpdateDuringTest() : getInstanceNoBatchAndNoUpdateDuringTest();
+			GlickoSystemStandalone none = (mode == 0) ? getInstanceBatchAndNoUpdateDuringTest() : getInstanceNoBatchAndNoUpdateDuringTest();
+			g.setDebug(false);
+			partWay.setDebug(false);
+			none.setDebug(false);
+			g.ratings.enableHistory();
+
+			double [][] expectRating = new double[games.numMonths()][n];
+			double [][] expectRd = new double[games.numMonths()][n];
+			for (int m = 0; m < games.numMonths(); m++)
 			{
-				if (isTest)
-				{
-					// estimate the outcome for the user and use that
-					double[] record = userPeriodRecords.get(i);
-					Integer opponentId = (record[1]==(double)userId.intValue()) ? new Integer((int)record[2]) : new Integer((int)record[1]);
-					UserRating opponent = ratings.get(opponentId);
-					// calculate estimated outcome for player and use as outcome
-					outcomes[i] = estimateOutcome(user.rating, opponent.rating, opponent.rd);
-				}
-				else
-				{
-					// use outcome in record for the player
-					double[] record = userPeriodRecords.get(i);
-					outcomes[i] = getOutcomeForPlayer(record, userId);
+				if (m == 6) {
+					partWay.ratings.enableHistory();
+				}
+				g.trainModel(games, m, m+1);
+				partWay.trainModel(games, m, m+1);
+				none.trainModel(games, m, m+1);
+				int month = games.getMonthValue(m);
+				for (int p = 0; p < n; p++) {
+					expectRating[m][p] = g.getRatingAsOf(p, month);
+					expectRd[m][p] = g.getRdAsOf(p, month);
 				}
 			}
-			// update
-			updateRatingsForUserPeriod(userId, month, userPeriodRecords, outcomes);
-		}
 
-		// map old ratings and rd to new ratings and rd
-		for(Integer userId : userMap.keySet())
-		{
-			applyRatingsAndRds(userId, month);
+			int refused = 0;
+			int earlier = 0;
+			for (int m = 0; m < games.numMonths(); m++)
+			{
+				int month = games.getMonthValue(m);
+				for (int p = 0; p < n; p++)
+				{
+					maxError = Math.max(maxError, Math.abs(g.getRatingAsOf(p, month) - expectRating[m][p]));
+					maxError = Math.max(maxError, Math.abs(g.getRdAsOf(p, month) - expectRd[m][p]));
+					boolean before = month < none.ratings.getMonthLastPlayed(p);
+					if (before) {
+						earlier++;
+					}
+					try {
+						none.getRdAsOf(p, month);
+						if (before) {
+							return Double.POSITIVE_INFINITY;
+						}
+					} catch (IllegalArgumentException e) {
+						if (!before) {
+							return Double.POSITIVE_INFINITY;
+						}
+					}
+					try {
+						maxError = Math.max(maxError, Math.abs(partWay.getRatingAsOf(p, month) - expectRating[m][p]));
+						maxError = Math.max(maxError, Math.abs(partWay.getRdAsOf(p, month) - expectRd[m][p]));
+					} catch (IllegalArgumentException e) {
+						if (m >= 6) {
+							return Double.POSITIVE_INFINITY;
+						}
+						refused++;
+					}
+				}
+			}
+			if (earlier == 0 || refused == 0) {
+				return Double.POSITIVE_INFINITY;
+			}
 		}
+		return maxError;
 	}
 
-	public void applyRatingsAndRds(Integer userId, short month)
+	/**
+	 * Train on random games with the stats of the table enabled part way and compare
+	 * the running rating and rd stats with a full scan
+	 *
+	 * @param numGames
+	 * @return the largest absolute difference in min, max or mean
+	 */
+	public static double testRunningStats(int numGames)
 	{
-		UserRating user = ratings.get(userId);
-		// transfer rating and rd
-		user.rating = user.tmpRating;
-		user.rd = user.tmpRd;
-		// update last played month
-		user.monthLastPlayed = month;
+		GameStore games = randomGames(numGames, 12, 500);
+		GlickoSystemStandalone g = getInstanceBatchAndNoUpdateDuringTest();
+		g.setDebug(false);
+		// enabled part way, then maintained by the updates
+		g.trainModel(games, 0, 6);
+		g.ratings.enableStats();
+		g.trainModel(games, 6, games.numMonths());
+
+		List<Double> ratingValues = new LinkedList<Double>();
+		List<Double> rdValues = new LinkedList<Double>();
+		for (int i = 0; i < g.ratings.size(); i++) {
+			ratingValues.add(g.ratings.getRating(i));
+			rdValues.add(g.ratings.getRd(i));
+		}
+		double [] expectR = toSummary(ratingValues);
+		double [] expectRd = toSummary(rdValues);
+		RunningStats gotR = g.ratings.getRatingStats();
+		RunningStats gotRd = g.ratings.getRdStats();
+		double maxError = 0.0;
+		maxError = Math.max(maxError, Math.abs(expectR[0]-gotR.getMin()));
+		maxError = Math.max(maxError, Math.abs(expectR[1]-gotR.getMax()));
+		maxError = Math.max(maxError, Math.abs(expectR[2]-gotR.getMean()));
+		maxError = Math.max(maxError, Math.abs(expectRd[0]-gotRd.getMin()));
+		maxError = Math.max(maxError, Math.abs(expectRd[1]-gotRd.getMax()));
+		maxError = Math.max(maxError, Math.abs(expectRd[2]-gotRd.getMean()));
+		return maxError;
 	}
 
-	public void updateRatingsForUserPeriod(
-			Integer userId,
-			Short month,
-			List<double[]> records,
-			double [] outcomes)
+	/**
+	 * Train the same games over heap, off-heap and mapped storage, then close and
+	 * reopen the mapped storage (no stats built) and continue training, all must agree
+	 * exactly, as must the stats enabled afterwards. The column files of the small
+	 * population must stay within the smallest first segment. Then grow a direct and a
+	 * mapped column a value at a time past the first full segment and read them back
+	 * (the mapped one after a reopen).
+	 *
+	 * @param numGames
+	 * @return number of players that differ
+	 * @throws IOException
+	 */
+	public static int testColumnStorage(int numGames)
+		throws IOException
 	{
-		// collect information for the user-period
-		double [] opponentRatings = new double[records.size()];
-		double [] opponentRDs = new double[records.size()];
-
-		for (int i = 0; i < records.size(); i++)
-		{
-			// get record
-			double[] record = records.get(i);
-			// get opponent
-			Integer opponentId = (record[1]==(double)userId.intValue()) ? new Integer((int)record[2]) : new Integer((int)record[1]);
-			UserRating opponent = ratings.get(opponentId);
-			// capture ratings and rds
-			opponentRatings[i] = opponent.rating;
-			opponentRDs[i] = opponent.rd;
+		GameStore.Builder builder = new GameStore.Builder();
+		randomGames(numGames, 12, 500, 1000, builder);
+		GameStore games = builder.build();
+		File dir = File.createTempFile("ratings", "");
+		dir.delete();
+
+		GlickoSystemStandalone heap = getInstance(true, false, 1500, 350, 30, 30, 200, ColumnStorage.HEAP);
+		GlickoSystemStandalone offHeap = getInstance(true, false, 1500, 350, 30, 30, 200, ColumnStorage.OFF_HEAP);
+		GlickoSystemStandalone mapped = getInstance(true, false, 1500, 350, 30, 30, 200, ColumnStorage.mapped(dir));
+		GlickoSystemStandalone [] models = {heap, offHeap, mapped};
+		for (GlickoSystemStandalone model : models) {
+			model.setDebug(false);
+			model.trainModel(games, 0, 6);
 		}
+		mapped.close();
+
+		// warm restart, carry on from the files
+		GlickoSystemStandalone restarted = getInstance(true, false, 1500, 350, 30, 30, 200, ColumnStorage.mapped(dir));
+		restarted.setDebug(false);
+		int mismatches = (restarted.ratings.getRatingStats() == null) ? 0 : 1;
+		restarted.trainModel(games, 6, games.numMonths());
+		heap.trainModel(games, 6, games.numMonths());
+		offHeap.trainModel(games, 6, games.numMonths());
+
+		heap.ratings.enableStats();
+		for (GlickoSystemStandalone model : new GlickoSystemStandalone[]{offHeap, restarted})
+		{
+			model.ratings.enableStats();
+			if (!model.ratings.getRatingStats().toString().equals(heap.ratings.getRatingStats().toString()) ||
+					!model.ratings.getRdStats().toString().equals(heap.ratings.getRdStats().toString())) {
+				mismatches++;
+			}
+			for (int i = 0; i < heap.ratings.size(); i++)
+			{
+				if (model.getPlayerIndex().getId(i) != heap.getPlayerIndex().getId(i) ||
+						model.ratings.getRating(i) != heap.ratings.getRating(i) ||
+						model.ratings.getRd(i) != heap.ratings.getRd(i)) {
+					mismatches++;
+				}
+			}
+		}
+		heap.close();
+		offHeap.close();
+		restarted.close();
+		for (File file : dir.listFiles()) {
+			if (file.length() > OffHeapColumn.HEADER_SIZE + 8L * OffHeapColumn.MIN_SEGMENT_SIZE) {
+				mismatches++;
+			}
+			file.delete();
+		}
+		dir.delete();
+
+		// the first segment doubles (copied or remapped) then full segments are added
+		File file = File.createTempFile("chessml-column", ".col");
+		file.delete();
+		try {
+			int n = OffHeapColumn.SEGMENT_SIZE + 1000;
+			for (int mode = 0; mode < 2; mode++)
+			{
+				OffHeapColumn column = (mode == 0) ? new OffHeapColumn() : new OffHeapColumn(file);
+				for (int i = 0; i < n; i++) {
+					column.setSize(i+1);
+					column.set(i, i * 0.5);
+				}
+				if (mode == 1) {
+					column.close();
+					column = new OffHeapColumn(file);
+				}
+				for (int i = 0; i < n; i++) {
+					if (column.get(i) != i * 0.5) {
+						mismatches++;
+					}
+				}
+				column.close();
+			}
+		} finally {
+			file.delete();
+		}
+		return mismatches;
+	}
+
+	/**
+	 * Train part way, predict a store with unseen players through the model's index,
+	 * save a snapshot and load it, then continue training both the original and the
+	 * restored model, the state must agree exactly after the load and at the end
+	 * (per-game and batch)
+	 *
+	 * @param numGames
+	 * @return number of players, parameters or months that differ
+	 * @throws IOException
+	 */
+	public static int testSnapshot(int numGames)
+		throws IOException
+	{
+		int mismatches = 0;
+		File file = File.createTempFile("chessml-snapshot", ".bin");
+		try {
+			for (int mode = 0; mode < 2; mode++)
+			{
+				GameStore store = randomGames(numGames, 12, 2000);
+				GlickoSystemStandalone g = (mode == 0) ? getInstanceBatchAndNoUpdateDuringTest() : getInstanceNoBatchAndNoUpdateDuringTest();
+				g.setDebug(false);
+				g.trainModel(store, 0, 6);
+				int rated = g.ratings.size();
+				// the model's index grows past the rated players
+				GameStore.Builder unseen = new GameStore.Builder(g.getPlayerIndex());
+				for (int i = 0; i < 20; i++) {
+					unseen.game(7, 5000 + 2*i, 5001 + 2*i, Double.NaN);
+				}
+				g.batchPredictions(unseen.build());
+				if (g.getPlayerIndex().size() <= rated) {
+					mismatches++;
+				}
+				g.saveSnapshot(file);
+				GlickoSystemStandalone restored = loadSnapshot(file);
+				restored.setDebug(false);
+
+				for (int pass = 0; pass < 2; pass++)
+				{
+					if (pass == 1) {
+						// the restored model maps the same games through its own index
+						GameStore.Builder restoredBuilder = new GameStore.Builder(restored.getPlayerIndex());
+						randomGames(numGames, 12, 2000, 0, restoredBuilder);
+						GameStore restoredStore = restoredBuilder.build();
+						g.trainModel(store, 6, store.numMonths());
+						restored.trainModel(restoredStore, 6, restoredStore.numMonths());
+					}
+					if (restored.isUpdateAfterEveryGame() != g.isUpdateAfterEveryGame() ||
+							restored.getLastMonth() != g.getLastMonth() ||
+							restored.getDefaultRD() != g.getDefaultRD() ||
+							restored.getMinRD() != g.getMinRD() ||
+							restored.ratings.size() != rated) {
+						mismatches++;
+					}
+					// by id, the unseen players took indexes (and rows once trained) in the original only
+					for (int i = 0; i < rated; i++)
+					{
+						int j = restored.getPlayerIndex().getIndex(g.getPlayerIndex().getId(i));
+						if (j < 0 || j >= restored.ratings.size() ||
+								restored.ratings.getRating(j) != g.ratings.getRating(i) ||
+								restored.ratings.getRd(j) != g.ratings.getRd(i) ||
+								Double.compare(restored.ratings.getMonthLastPlayed(j), g.ratings.getMonthLastPlayed(i)) != 0) {
+							mismatches++;
+						}
+					}
+				}
+			}
+		} finally {
+			file.delete();
+		}
+		return mismatches;
+	}
+
+	/**
+	 * Bound the difference between fast and exact predictions: random pairings over
+	 * the full range of ratings and RDs (including RDs outside the table), then all
+	 * pairings of a trained model
+	 *
+	 * @param trials
+	 * @return the largest absolute difference in an expected outcome
+	 */
+	public static double testFastMath(int trials)
+	{
+		Random r = new Random(1);
+		GlickoSystemStandalone g = getInstanceNoBatchAndNoUpdateDuringTest();
+		g.setDebug(false);
+		GlickoFastMath fast = new GlickoFastMath(g.getMinRD(), g.getDefaultRD());
+		double maxError = 0.0;
+		for (int i = 0; i < trials; i++)
+		{
+			double rating = 500 + r.nextDouble() * 2500;
+			double opponentRating = 500 + r.nextDouble() * 2500;
+			double opponentRD = g.getMinRD() - 10 + r.nextDouble() * (g.getDefaultRD()-g.getMinRD()+20);
+			double error = Math.abs(fast.estimateOutcome(rating, opponentRating, opponentRD) -
+					estimateOutcome(rating, opponentRating, opponentRD));
+			maxError = Math.max(maxError, error);
+		}
+
+		// end to end through predictResult
+		GameStore games = randomGames(20000, 12, 500);
+		g.trainModel(games);
+		int n = g.ratings.size();
+		double [] exact = new double[n*n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				exact[i*n+j] = g.predictResult(i, j);
+			}
+		}
+		g.setFastMath(true);
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				maxError = Math.max(maxError, Math.abs(g.predictResult(i, j)-exact[i*n+j]));
+			}
+		}
+		return maxError;
+	}
+
+	/**
+	 * Train with a leaderboard and compare its ranks, top players and rating bands
+	 * with a full sort of the ratings
+	 *
+	 * @param numGames
+	 * @return number of queries that disagree
+	 */
+	public static int testLeaderboard(int numGames)
+	{
+		GameStore games = randomGames(numGames, 12, 500);
+		GlickoSystemStandalone g = getInstanceBatchAndNoUpdateDuringTest();
+		g.setDebug(false);
+		// enabled part way, then maintained by the updates
+		g.trainModel(games, 0, 6);
+		Leaderboard leaderboard = g.ratings.enableLeaderboard();
+		g.trainModel(games, 6, games.numMonths());
+
+		// expected order: highest rating first, ties by index
+		int n = g.ratings.size();
+		Integer [] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		final RatingTable table = g.ratings;
+		Arrays.sort(order, (a, b) -> (table.getRating(a) != table.getRating(b)) ?
+				Double.compare(table.getRating(b), table.getRating(a)) : Integer.compare(a, b));
+
+		int mismatches = 0;
+		int [] top = leaderboard.getTop(n);
+		for (int rank = 0; rank < n; rank++)
+		{
+			if (leaderboard.getRank(order[rank]) != rank) mismatches++;
+			if (leaderboard.getPlayerAt(rank) != order[rank]) mismatches++;
+			if (top[rank] != order[rank]) mismatches++;
+		}
+		Random r = new Random(2);
+		for (int i = 0; i < 100; i++)
+		{
+			double low = 1200 + r.nextDouble() * 400;
+			double high = low + r.nextDouble() * 200;
+			int expect = 0;
+			for (int p = 0; p < n; p++) {
+				if (table.getRating(p) >= low && table.getRating(p) <= high) expect++;
+			}
+			if (leaderboard.getPlayersInBand(low, high).length != expect) mismatches++;
+		}
+		return mismatches;
+	}
+
+	/**
+	 * Train on random games, then add late games to past months (one of them new) and
+	 * later months in two updates and compare with training from scratch on all games (per-game and
+	 * batch)
+	 *
+	 * @param numGames
+	 * @return the largest absolute difference in rating or rd
+	 */
+	public static double testIncrementalTraining(int numGames)
+	{
+		double maxError = 0.0;
+		for (int mode = 0; mode < 2; mode++)
+		{
+			final int [][] games = new int[numGames][];
+			randomGames(numGames, 24, 2000, 0, new GameLogReader.Handler() {
+				int i;
+				public void game(int month, int white, int black, double score) {
+					games[i++] = new int[] {month, white, black, (int) (score * 2)};
+				}
+			});
+			// a tenth arrive late, as do all of month 7 and any after month 22
+			Random r = new Random(2);
+			boolean [] late = new boolean[numGames];
+			for (int i = 0; i < numGames; i++) {
+				late[i] = r.nextInt(10) == 0 || games[i][0] == 7 || games[i][0] > 22;
+			}
+
+			GameStore.Builder all = new GameStore.Builder();
+			GameStore.Builder early = new GameStore.Builder();
+			for (int pass = 0; pass < 2; pass++) {
+				for (int i = 0; i < numGames; i++) {
+					if (late[i] == (pass == 1)) {
+						all.game(games[i][0], games[i][1], games[i][2], games[i][3] / 2.0);
+						if (pass == 0) {
+							early.game(games[i][0], games[i][1], games[i][2], games[i][3] / 2.0);
+						}
+					}
+				}
+			}
+			GameStore allGames = all.build();
+			GameStore earlyGames = early.build();
+
+			GlickoSystemStandalone full = (mode == 0) ? getInstanceBatchAndNoUpdateDuringTest() : getInstanceNoBatchAndNoUpdateDuringTest();
+			GlickoSystemStandalone incremental = (mode == 0) ? getInstanceBatchAndNoUpdateDuringTest() : getInstanceNoBatchAndNoUpdateDuringTest();
+			full.setDebug(false);
+			incremental.setDebug(false);
+			full.trainModel(allGames);
+			IncrementalTrainer trainer = new IncrementalTrainer(incremental, earlyGames.getPlayerIndex());
+			trainer.train(earlyGames);
+			// in two updates, the second replays over records written by the first
+			int half = numGames / 2;
+			for (int i = 0; i < numGames; i++) {
+				if (late[i]) {
+					trainer.addGame(games[i][0], games[i][1], games[i][2], games[i][3] / 2.0);
+				}
+				if (i == half) {
+					trainer.update();
+				}
+			}
+			trainer.update();
+
+			PlayerIndex players = trainer.getPlayerIndex();
+			for (int i = 0; i < players.size(); i++) {
+				int j = allGames.getPlayerIndex().getIndex(players.getId(i));
+				maxError = Math.max(maxError, Math.abs(full.ratings.getRating(j) - incremental.ratings.getRating(i)));
+				maxError = Math.max(maxError, Math.abs(full.ratings.getRd(j) - incremental.ratings.getRd(i)));
+			}
+		}
+		return maxError;
+	}
+
+	/**
+	 * Train a month at a time with a history enabled part way and sealed part way,
+	 * and compare its as-of queries and range scans with the states recorded after
+	 * each month, before and after a write and read (per-game and batch)
+	 *
+	 * @param numGames
+	 * @return the largest absolute difference in rating or rd, infinite if an entry
+	 * is missing or extra
+	 * @throws IOException
+	 */
+	public static double testRatingHistory(int numGames)
+		throws IOException
+	{
+		double maxError = 0.0;
+		for (int mode = 0; mode < 2; mode++)
+		{
+			GameStore games = randomGames(numGames, 24, 2000);
+			Random r = new Random(2);
+			GlickoSystemStandalone g = (mode == 0) ? getInstanceBatchAndNoUpdateDuringTest() : getInstanceNoBatchAndNoUpdateDuringTest();
+			g.setDebug(false);
+
+			// expected state by player and month value, NaN if not recorded
+			int n = games.getPlayerIndex().size();
+			int months = games.getMonthValue(games.numMonths()-1);
+			double [][] expectRating = new double[n][months+1];
+			double [][] expectRd = new double[n][months+1];
+			for (int p = 0; p < n; p++) {
+				Arrays.fill(expectRating[p], Double.NaN);
+				Arrays.fill(expectRd[p], Double.NaN);
+			}
+			RatingHistory history = null;
+			for (int m = 0; m < games.numMonths(); m++)
+			{
+				g.trainModel(games, m, m+1);
+				if (m == 5) {
+					history = g.ratings.enableHistory();
+				} else if (m == 15) {
+					history.seal();
+				}
+				if (history == null) {
+					continue;
+				}
+				for (int p = 0; p < g.ratings.size(); p++) {
+					double last = g.ratings.getMonthLastPlayed(p);
+					if (!Double.isNaN(last) && (m == 5 || last == games.getMonthValue(m))) {
+						expectRating[p][(int) last] = (float) g.ratings.getRating(p);
+						expectRd[p][(int) last] = (float) g.ratings.getRd(p);
+					}
+				}
+			}
+
+			File file = File.createTempFile("chessml-history", ".bin");
+			try {
+				for (int pass = 0; pass < 2; pass++)
+				{
+					if (pass == 1) {
+						history.write(file);
+						history = RatingHistory.read(file);
+					}
+					for (int p = 0; p < n; p++)
+					{
+						// as of each month
+						double rating = Double.NaN;
+						double rd = Double.NaN;
+						for (int month = 0; month <= months + 1; month++)
+						{
+							if (month <= months && !Double.isNaN(expectRating[p][month])) {
+								rating = expectRating[p][month];
+								rd = expectRd[p][month];
+							}
+							double actualRating = history.getRatingAsOf(p, month);
+							double actualRd = history.getRdAsOf(p, month);
+							if (Double.isNaN(rating) != Double.isNaN(actualRating)) {
+								return Double.POSITIVE_INFINITY;
+							}
+							if (!Double.isNaN(rating)) {
+								maxError = Math.max(maxError, Math.abs(rating - actualRating));
+								maxError = Math.max(maxError, Math.abs(rd - actualRd));
+							}
+						}
+
+						// a range of months
+						final int from = r.nextInt(months + 1);
+						final int to = from + r.nextInt(months + 1 - from);
+						final List<double []> visited = new ArrayList<double []>();
+						history.scan(p, from, to, new RatingHistory.Visitor() {
+							public void entry(int month, double aRating, double aRd) {
+								visited.add(new double [] {month, aRating, aRd});
+							}
+						});
+						int k = 0;
+						for (int month = from; month <= to; month++) {
+							if (Double.isNaN(expectRating[p][month])) {
+								continue;
+							}
+							if (k == visited.size() || visited.get(k)[0] != month) {
+								return Double.POSITIVE_INFINITY;
+							}
+							maxError = Math.max(maxError, Math.abs(expectRating[p][month] - visited.get(k)[1]));
+							maxError = Math.max(maxError, Math.abs(expectRd[p][month] - visited.get(k)[2]));
+							k++;
+						}
+						if (k != visited.size()) {
+							return Double.POSITIVE_INFINITY;
+						}
+					}
+				}
+			} finally {
+				file.delete();
+			}
+		}
+		return maxError;
+	}
+
+	/**
+	 * Train out of core on a csv of random games in random month order, spilled in
+	 * small runs, and compare with training in memory (per-game and batch)
+	 *
+	 * @param numGames
+	 * @return the largest absolute difference in rating or rd, infinite if the
+	 * player indexes differ
+	 * @throws IOException
+	 */
+	public static double testExternalTraining(int numGames)
+		throws IOException
+	{
+		File file = File.createTempFile("chessml-external", ".csv");
+		final GameLogWriter writer = new GameLogWriter(file);
+		try {
+			writer.write(FIRST_LINE).write('\n');
+			randomGames(numGames, 24, 2000, 0, new GameLogReader.Handler() {
+				public void game(int month, int white, int black, double score) {
+					try {
+						writer.write(month).write(',').write(white).write(',').write(black).write(',').write(score, 1).write('\n');
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			});
+		} finally {
+			writer.close();
+		}
+
+		double maxError = 0.0;
+		try {
+			GameStore games = loadDataset(file);
+			for (int mode = 0; mode < 2; mode++)
+			{
+				GlickoSystemStandalone memory = (mode == 0) ? getInstanceBatchAndNoUpdateDuringTest() : getInstanceNoBatchAndNoUpdateDuringTest();
+				GlickoSystemStandalone external = (mode == 0) ? getInstanceBatchAndNoUpdateDuringTest() : getInstanceNoBatchAndNoUpdateDuringTest();
+				memory.setDebug(false);
+				external.setDebug(false);
+				memory.trainModel(games);
+				PlayerIndex players = new ExternalTrainer(null, numGames/7).train(external, file);
+
+				if (players.size() != games.getPlayerIndex().size()) {
+					return Double.POSITIVE_INFINITY;
+				}
+				for (int i = 0; i < players.size(); i++) {
+					if (players.getId(i) != games.getPlayerIndex().getId(i)) {
+						return Double.POSITIVE_INFINITY;
+					}
+					maxError = Math.max(maxError, Math.abs(memory.ratings.getRating(i) - external.ratings.getRating(i)));
+					maxError = Math.max(maxError, Math.abs(memory.ratings.getRd(i) - external.ratings.getRd(i)));
+				}
+			}
+		} finally {
+			file.delete();
+		}
+		return maxError;
+	}
+
+	/**
+	 * Stream the second half of random games through a rating server (the first
+	 * games over http) and compare with training on all of them, then read a
+	 * prediction and a rating back over http, and predict while new players grow
+	 * the index
+	 *
+	 * @param numGames
+	 * @return the largest absolute difference in rating, rd or the values read back,
+	 * infinite if a reader hangs
+	 * @throws Exception
+	 */
+	public static double testRatingServer(int numGames)
+		throws Exception
+	{
+		GameStore games = randomGames(numGames, 12, 500);
+		GlickoSystemStandalone all = getInstanceBatchAndNoUpdateDuringTest();
+		all.setDebug(false);
+		all.trainModel(games);
+
+		GlickoSystemStandalone half = getInstanceBatchAndNoUpdateDuringTest();
+		half.setDebug(false);
+		int split = games.numMonths() / 2;
+		half.trainModel(games, 0, split);
+
+		RatingServer server = new RatingServer(half);
+		server.start(0, 2);
+		String base = "http://localhost:" + server.getPort();
+		int from = games.monthStart(split);
+		for (int i = from; i < games.size(); i++)
+		{
+			if (i < from + 100) {
+				HttpURLConnection post = (HttpURLConnection) new URL(base + "/game").openConnection();
+				post.setRequestMethod("POST");
+				post.setDoOutput(true);
+				OutputStream out = post.getOutputStream();
+				out.write(("month=" + games.getMonth(i) + "&white=" + games.getWhiteId(i) + "&black=" + games.getBlackId(i) +
+						"&score=" + games.getScore(i)).getBytes("UTF-8"));
+				out.close();
+				if (post.getResponseCode() != 202) {
+					throw new IOException("Submit failed: " + post.getResponseCode());
+				}
+				post.disconnect();
+			} else if (!server.submit(games.getMonth(i), games.getWhiteId(i), games.getBlackId(i), games.getScore(i))) {
+				throw new IOException("Queue full");
+			}
+		}
+		while (server.getGamesApplied() < games.size() - from) {
+			Thread.sleep(1);
+		}
+
+		double maxError = 0.0;
+		for (int i = 0; i < games.getPlayerIndex().size(); i++) {
+			maxError = Math.max(maxError, Math.abs(all.ratings.getRating(i) - half.ratings.getRating(i)));
+			maxError = Math.max(maxError, Math.abs(all.ratings.getRd(i) - half.ratings.getRd(i)));
+		}
+		String predict = new Scanner(new URL(base + "/predict?white=3&black=4").openStream(), "UTF-8").useDelimiter("\\A").next();
+		double expected = Double.parseDouble(predict.replaceAll(".*\"expected\":([^,}]*).*", "$1"));
+		maxError = Math.max(maxError, Math.abs(expected - all.predictResultById(3, 4)));
+		String rating = new Scanner(new URL(base + "/rating?id=3").openStream(), "UTF-8").useDelimiter("\\A").next();
+		double value = Double.parseDouble(rating.replaceAll(".*\"rating\":([^,}]*).*", "$1"));
+		maxError = Math.max(maxError, Math.abs(value - all.ratings.getRating(games.getPlayerIndex().getIndex(3))));
+
+		// optimistic readers racing the writer while new players grow the index
+		final RatingServer racing = server;
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread reader = new Thread() {
+			public void run() {
+				Random ids = new Random(2);
+				while (!done.get()) {
+					racing.predict(ids.nextInt(200000), ids.nextInt(200000));
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+		long applied = server.getGamesApplied();
+		int month = games.getMonthValue(games.numMonths()-1);
+		for (int i = 0; i < 100000; i++) {
+			while (!server.submit(month, 1000 + 2*i, 1001 + 2*i, 0.5)) {
+				Thread.sleep(1);
+			}
+		}
+		while (server.getGamesApplied() < applied + 100000) {
+			Thread.sleep(1);
+		}
+		done.set(true);
+		reader.join(10000);
+
+		// earlier months are refused over http, or skipped by the writer if queued behind a later one
+		HttpURLConnection early = (HttpURLConnection) new URL(base + "/game").openConnection();
+		early.setRequestMethod("POST");
+		early.setDoOutput(true);
+		OutputStream out = early.getOutputStream();
+		out.write(("month=" + (month-1) + "&white=3&black=4&score=1").getBytes("UTF-8"));
+		out.close();
+		if (early.getResponseCode() != 400) {
+			throw new IOException("Earlier month accepted: " + early.getResponseCode());
+		}
+		early.disconnect();
+		applied = server.getGamesApplied();
+		int refused = 0;
+		server.submit(month+1, 3, 4, 1.0);
+		try {
+			server.submit(month, 3, 4, 1.0);
+		} catch (IllegalArgumentException e) {
+			refused++;
+		}
+		server.submit(month+1, 4, 3, 1.0);
+		while (server.getGamesApplied() < applied + 2) {
+			Thread.sleep(1);
+		}
+		if (refused + server.getGamesRejected() != 1) {
+			throw new IOException("Earlier month applied");
+		}
+		server.stop();
+		return reader.isAlive() ? Double.POSITIVE_INFINITY : maxError;
+	}
+
+	/**
+	 * Train once sequentially and once on a fork-join pool with a small grain (so
+	 * every period and wave is split), the ratings and rds must be identical
+	 * (per-game and batch)
+	 *
+	 * @param numGames
+	 * @return number of players whose rating or rd differs
+	 */
+	public static int testParallelTraining(int numGames)
+	{
+		GameStore games = randomGames(numGames, 12, 2000);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		int mismatches = 0;
+		for (int mode = 0; mode < 2; mode++)
+		{
+			GlickoSystemStandalone sequential = (mode == 0) ? getInstanceBatchAndNoUpdateDuringTest() : getInstanceNoBatchAndNoUpdateDuringTest();
+			GlickoSystemStandalone parallel = (mode == 0) ? getInstanceBatchAndNoUpdateDuringTest() : getInstanceNoBatchAndNoUpdateDuringTest();
+			sequential.setDebug(false);
+			parallel.setDebug(false);
+			parallel.setPool(pool);
+			parallel.setParallelGrain(16);
+			sequential.trainModel(games);
+			parallel.trainModel(games);
+
+			for (int i = 0; i < games.getPlayerIndex().size(); i++) {
+				if (parallel.ratings.getRating(i) != sequential.ratings.getRating(i) ||
+						parallel.ratings.getRd(i) != sequential.ratings.getRd(i)) {
+					mismatches++;
+				}
+			}
+		}
+		pool.shutdown();
+		return mismatches;
+	}
+
+	/**
+	 * Score random pairings by id, a quarter of them with unseen players, in parallel
+	 * and compare with predictResult (or the priors) one at a time, then score the
+	 * same pairings as a store over the model's index and over another index (which
+	 * must not add the unseen players or swap the model's index)
+	 *
+	 * @param numPairings
+	 * @return the largest absolute difference
+	 */
+	public static double testPredictBatch(int numPairings)
+	{
+		GameStore games = randomGames(20000, 12, 500);
+		Random r = new Random(1);
+		GlickoSystemStandalone g = getInstanceNoBatchAndNoUpdateDuringTest();
+		g.setDebug(false);
+		g.setPool(new ForkJoinPool(4));
+		g.trainModel(games);
+		g.setPriors(1400, 300);
+
+		int [] whiteIds = new int[numPairings];
+		int [] blackIds = new int[numPairings];
+		for (int i = 0; i < numPairings; i++) {
+			whiteIds[i] = r.nextInt(667);
+			blackIds[i] = r.nextInt(667);
+		}
+		double [] predictions = new double[numPairings];
+		g.predictBatch(whiteIds, blackIds, predictions);
+
+		PlayerIndex players = games.getPlayerIndex();
+		double maxError = 0.0;
+		for (int i = 0; i < numPairings; i++)
+		{
+			int white = players.getIndex(whiteIds[i]);
+			int black = players.getIndex(blackIds[i]);
+			double whiteRating = (white < 0) ? 1400 : g.ratings.getRating(white);
+			double blackRating = (black < 0) ? 1400 : g.ratings.getRating(black);
+			double blackRd = (black < 0) ? 300 : g.ratings.getRd(black);
+			double expect = (white >= 0 && black >= 0) ?
+					g.predictResult(white, black) :
+					estimateOutcome(whiteRating, blackRating, blackRd);
+			maxError = Math.max(maxError, Math.abs(expect-predictions[i]));
+		}
+
+		// as a store over the model's index and over an index of its own, a single
+		// month keeps the pairings in order
+		int rated = g.ratings.size();
+		PlayerIndex trained = g.getPlayerIndex();
+		for (PlayerIndex index : new PlayerIndex[] {trained, new PlayerIndex()})
+		{
+			GameStore.Builder test = new GameStore.Builder(index);
+			for (int i = 0; i < numPairings; i++) {
+				test.game(13, whiteIds[i], blackIds[i], Double.NaN);
+			}
+			double [] stored = g.batchPredictions(test.build());
+			for (int i = 0; i < numPairings; i++) {
+				maxError = Math.max(maxError, Math.abs(stored[i]-predictions[i]));
+			}
+			if (g.ratings.size() != rated || g.getPlayerIndex() != trained) {
+				return Double.POSITIVE_INFINITY;
+			}
+		}
+		return maxError;
+	}
+
+	/**
+	 * Measure heap allocated by the per-game update path (train and test mode)
+	 * with the thread allocation counters
+	 *
+	 * @param numGames
+	 * @return bytes allocated per game, after a warm up pass
+	 */
+	public static double testPerGameAllocation(int numGames)
+	{
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		// one month of random games between 1000 players
+		GameStore games = randomGames(numGames, 1, 1000);
+		GlickoSystemStandalone g = getInstanceBatchAndUpdateDuringTest();
+		g.ratings.ensureSize(games.getPlayerIndex().size());
+
+		// warm up
+		g.perGameUpdatesForUserMonths(games, 0, false);
+		g.perGameUpdatesForUserMonths(games, 0, true);
+		threads.getThreadAllocatedBytes(thread);
+
+		long before = threads.getThreadAllocatedBytes(thread);
+		g.perGameUpdatesForUserMonths(games, 0, false);
+		g.perGameUpdatesForUserMonths(games, 0, true);
+		long after = threads.getThreadAllocatedBytes(thread);
+		return (after-before) / (2.0*numGames);
+	}
+
+	/**
+	 * Compare the fused kernel against calculateNewRating and calculateNewRD on random periods
+	 *
+	 * @param trials
+	 * @return the largest relative difference seen in the rating or rd
+	 */
+	public double testKernel(int trials)
+	{
+		Random r = new Random(1);
+		double [] out = new double[2];
+		double maxError = 0.0;
+		for (int i = 0; i < trials; i++)
+		{
+			int n = 1 + r.nextInt(20);
+			double [] opponentRatings = new double[n];
+			double [] opponentRDs = new double[n];
+			double [] outcomes = new double[n];
+			for (int j = 0; j < n; j++) {
+				opponentRatings[j] = 800 + r.nextDouble() * 1600;
+				opponentRDs[j] = minRD + r.nextDouble() * (defaultRD-minRD);
+				outcomes[j] = r.nextInt(3) / 2.0;
+			}
+			double rating = 800 + r.nextDouble() * 1600;
+			double rd = minRD + r.nextDouble() * (defaultRD-minRD);
+
+			GlickoKernel.update(rating, rd, opponentRatings, opponentRDs, outcomes, n, minRD, out);
+			double expectRating = calculateNewRating(rating, rd, opponentRatings, opponentRDs, outcomes);
+			double expectRD = calculateNewRD(rating, rd, opponentRatings, opponentRDs);
+			maxError = Math.max(maxError, Math.abs(out[0]-expectRating)/Math.abs(expectRating));
+			maxError = Math.max(maxError, Math.abs(out[1]-expectRD)/Math.abs(expectRD));
+		}
+		return maxError;
+	}
+
+	/**
+	 * Usage: java GlickoSystemStandalone training_data.csv test_data.csv
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		// most basic validation
+		if (args.length != 2) {
+			System.out.println("Usage: java GlickoSystemStandalone training_data.csv test_data.csv");
+			System.exit(1);
+		}
+		// train
+		GameStore training = loadDataset(new File(args[0]));
+		GlickoSystemStandalone g = new GlickoSystemStandalone();
+		g.setPool(new ForkJoinPool());
+		System.out.println("Model: " + g);
+		g.trainModel(training);
+
+		// generate submission file, same player index as training
+		GameStore test = loadDataset(new File(args[1]), training.getPlayerIndex());
+		double [] predictions = g.batchPredictions(test);
+		// save
+		saveDataset(test, predictions, new File("submission.csv"));
+		System.out.println("Wrote file: submission.csv, done.");
+	}
+
+
+	/**
+	 * @param recordSet
+	 * @return predictions in the (month) order of the store
+	 */
+	public double [] batchPredictions(GameStore recordSet)
+	{
+		double [] predictions = new double[recordSet.size()];
+		if (updateRatingsDuringtest)
+		{
+			// players not seen in training start on the defaults, they are updated
+			preparePlayers(recordSet.getPlayerIndex());
+			// score each month then update with the estimated outcomes
+			predictAndUpdate(recordSet, 0, recordSet.numMonths(), true, predictions);
+		} else {
+			// players not seen in training are scored with the priors, nothing is added
+			predictBatch(recordSet, predictions);
+		}
+
+		return predictions;
+	}
+
+	/**
+	 * Score all games of a store with the current ratings, split across cores for
+	 * large stores. Players not in the rating table are scored with the prior rating
+	 * and rd, the model's player index is not changed.
+	 *
+	 * @param recordSet - over the model's player index (see {@link #getPlayerIndex()}),
+	 * 	or any other index whose players are then found by id
+	 * @param predictions - indexed by game
+	 */
+	public void predictBatch(final GameStore recordSet, final double [] predictions)
+	{
+		if (recordSet.getPlayerIndex() != players)
+		{
+			forEachChunk(recordSet.size(), (from, to) -> {
+				for (int i = from; i < to; i++) {
+					predictions[i] = predictResultById(recordSet.getWhiteId(i), recordSet.getBlackId(i));
+				}
+			});
+			return;
+		}
+		forEachChunk(recordSet.size(), (from, to) -> {
+			for (int i = from; i < to; i++) {
+				predictions[i] = predictResultOrPrior(recordSet.getWhite(i), recordSet.getBlack(i));
+			}
+		});
+	}
+
+	/**
+	 * Score pairings given by player id, split across cores for large batches. Players
+	 * not in the rating table (never seen, or added to the index after training) are
+	 * scored with the prior rating and rd. Nothing is written, so batches may be
+	 * scored concurrently with each other (not with training).
+	 *
+	 * @param whiteIds
+	 * @param blackIds
+	 * @param predictions - expected score for white, same length as the ids
+	 */
+	public void predictBatch(final int [] whiteIds, final int [] blackIds, final double [] predictions)
+	{
+		if (whiteIds.length != blackIds.length || whiteIds.length != predictions.length) {
+			throw new IllegalArgumentException("Batch lengths differ: " + whiteIds.length + ", " + blackIds.length + ", " + predictions.length);
+		}
+		forEachChunk(predictions.length, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				predictions[i] = predictResultById(whiteIds[i], blackIds[i]);
+			}
+		});
+	}
+
+	/**
+	 * @param whiteId - player id of white
+	 * @param blackId - player id of black
+	 * @return expected score for white, unseen players are on the priors
+	 */
+	public double predictResultById(int whiteId, int blackId)
+	{
+		return predictResultOrPrior(getRatedIndex(whiteId), getRatedIndex(blackId));
+	}
+
+	/**
+	 * @param white - dense index, -1 or past the rating table for the prior
+	 * @param black - dense index, -1 or past the rating table for the prior
+	 * @return expected score for white
+	 */
+	protected double predictResultOrPrior(int white, int black)
+	{
+		boolean whiteRated = white >= 0 && white < ratings.size();
+		boolean blackRated = black >= 0 && black < ratings.size();
+		double whiteRating = whiteRated ? ratings.getRating(white) : priorRating;
+		double blackRating = blackRated ? ratings.getRating(black) : priorRating;
+		double blackRd = blackRated ? ratings.getRd(black) : priorRD;
+		return predictOutcome(whiteRating, blackRating, blackRd);
+	}
+
+	/**
+	 * @param id
+	 * @return dense index of the player, -1 if the player has no rating
+	 */
+	protected int getRatedIndex(int id)
+	{
+		if (players == null) {
+			return -1;
+		}
+		int index = players.getIndex(id);
+		return (index < ratings.size()) ? index : -1;
+	}
+
+	/**
+	 * A range [from, to) of a batch
+	 */
+	protected interface Chunk
+	{
+		void run(int from, int to);
+	}
+
+	/**
+	 * Run [0, n) in chunks of PREDICT_GRAIN, as a parallel stream on the model's pool
+	 * (or the common pool) when there is more than one chunk
+	 */
+	protected void forEachChunk(final int n, final Chunk chunk)
+	{
+		final int chunks = (n + PREDICT_GRAIN - 1) / PREDICT_GRAIN;
+		if (chunks <= 1) {
+			chunk.run(0, n);
+			return;
+		}
+		Runnable task = () -> IntStream.range(0, chunks).parallel().forEach(
+				i -> chunk.run(i*PREDICT_GRAIN, Math.min(n, (i+1)*PREDICT_GRAIN)));
+		if (pool == null) {
+			task.run();
+		} else {
+			// a parallel stream started inside a pool runs on that pool
+			pool.submit(task).join();
+		}
+	}
 
-		// update
-		updateRatingsForUser(userId, month, opponentRatings, opponentRDs, outcomes);
+	/**
+	 * Rating and rd used for players not in the rating table, defaults to the
+	 * default rating and rd
+	 *
+	 * @param aPriorRating
+	 * @param aPriorRD
+	 */
+	public void setPriors(double aPriorRating, double aPriorRD)
+	{
+		priorRating = aPriorRating;
+		priorRD = aPriorRD;
+	}
+	public double getPriorRating()
+	{
+		return priorRating;
+	}
+	public double getPriorRD()
+	{
+		return priorRD;
 	}
 
-	public void updateRatingsForUser(
-			Integer userId,
-			Short month,
-			double [] opponentRatings,
-			double [] opponentRDs,
-			double [] outcomes)
+	/**
+	 * @param white - dense index of the white player
+	 * @param black - dense index of the black player
+	 * @return expected score for white
+	 */
+	public double predictResult(int white, int black)
 	{
-		// prepare data
-		UserRating user = ratings.get(userId);
-		double rating = user.rating;
-		double c = calculateC();
-		double t = user.getNumTimePeriodsSinceLastGame(month);
-		double rd = calculateCurrentRD(user.rd, c, t);
-
-		// calculate new rating
-		user.tmpRating = calculateNewRating(
-				rating,
-				rd,
-				opponentRatings,
-				opponentRDs,
-				outcomes);
-		// calculate new rd
-		user.tmpRd = calculateNewRD(rating, rd, opponentRatings, opponentRDs);
+		// basic idea...
+		return predictOutcome(ratings.getRating(white), ratings.getRating(black), ratings.getRd(black));
 	}
 
-	protected void printStats()
+	public void preparePlayers(PlayerIndex aPlayers)
 	{
-		if (!PRINT_DEBUG) {
+		if (aPlayers != players && aPlayers.size() < ratings.size()) {
+			throw new IllegalArgumentException("Index of " + aPlayers.size() + " players does not cover the " + ratings.size() + " rated players, use getPlayerIndex()");
+		}
+		players = aPlayers;
+		int rated = ratings.size();
+		ratings.ensureSize(players.size());
+		if (playerIds != null && players.size() > rated)
+		{
+			playerIds.setSize(players.size());
+			for (int i = rated; i < players.size(); i++) {
+				playerIds.set(i, players.getId(i));
+			}
+		}
+	}
+
+	/**
+	 * Write the rating table (and player ids) through to persistent storage
+	 */
+	public void force()
+	{
+		ratings.force();
+		if (playerIds != null) {
+			playerIds.force();
+		}
+	}
+
+	/**
+	 * Close the rating table and player ids (releases files and off-heap memory), the
+	 * model must not be used afterwards
+	 *
+	 * @throws IOException
+	 */
+	public void close()
+		throws IOException
+	{
+		try {
+			ratings.close();
+		} finally {
+			if (playerIds != null) {
+				playerIds.close();
+			}
+		}
+	}
+
+	public void updateMonth(GameStore records, int monthIndex, boolean isTest)
+	{
+		long start = System.nanoTime();
+		if (updateAfterEveryGame) {
+			perGameUpdatesForUserMonths(records, monthIndex, isTest);
+		} else {
+			batchUpdatesForUserMonths(records, monthIndex, isTest);
+		}
+		lastMonth = records.getMonthValue(monthIndex);
+		metrics.record(lastMonth, records.monthEnd(monthIndex)-records.monthStart(monthIndex), System.nanoTime()-start);
+
+		printStats();
+	}
+
+	/**
+	 * @return timing of each month processed so far
+	 */
+	public MonthMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	public void perGameUpdatesForUserMonths(GameStore records, int monthIndex, boolean isTest)
+	{
+		int month = records.getMonthValue(monthIndex);
+		int start = records.monthStart(monthIndex);
+		int end = records.monthEnd(monthIndex);
+
+		if (pool != null && end-start > parallelGrain) {
+			perGameUpdatesInWaves(records, monthIndex, isTest);
 			return;
 		}
 
-		List<Double> r = new LinkedList<Double>();
-		List<Double> rds = new LinkedList<Double>();
+		// process all games in the month in turn
+		for (int i = start; i < end; i++)
+		{
+			updateForGame(records, i, month, isTest);
+			applyForGame(records, i, month);
+		}
+
+	}
+
+	/**
+	 * Per-game updates for a month, split into waves of games with no player in
+	 * common. The games of a wave are computed in parallel then applied, which gives
+	 * the same ratings as the sequential month order.
+	 *
+	 * @param records
+	 * @param monthIndex
+	 * @param isTest
+	 */
+	protected void perGameUpdatesInWaves(GameStore records, int monthIndex, boolean isTest)
+	{
+		int month = records.getMonthValue(monthIndex);
+		if (waves == null) {
+			waves = new WaveSchedule();
+		}
+		waves.schedule(records, monthIndex);
+
+		for (int w = 0; w < waves.numWaves(); w++)
+		{
+			int start = waves.waveStart(w);
+			int end = waves.waveEnd(w);
+			if (end-start > parallelGrain) {
+				pool.invoke(new WaveTask(records, month, isTest, start, end));
+			} else {
+				for (int k = start; k < end; k++) {
+					updateForGame(records, waves.getGame(k), month, isTest);
+				}
+			}
+			for (int k = start; k < end; k++) {
+				applyForGame(records, waves.getGame(k), month);
+			}
+		}
+	}
+
+	/**
+	 * Computes the tmp ratings for a range of the games in a wave
+	 */
+	protected class WaveTask extends RecursiveAction
+	{
+		private final static long serialVersionUID = 1L;
+
+		private final GameStore records;
+		private final int month;
+		private final boolean isTest;
+		private final int start;
+		private final int end;
+
+		public WaveTask(GameStore aRecords, int aMonth, boolean aIsTest, int aStart, int aEnd)
+		{
+			records = aRecords;
+			month = aMonth;
+			isTest = aIsTest;
+			start = aStart;
+			end = aEnd;
+		}
 
-		for(Integer userId : ratings.keySet())
+		@Override
+		protected void compute()
 		{
-			UserRating user = ratings.get(userId);
-			r.add(new Double(user.rating));
-			rds.add(new Double(user.rd));
+			if (end-start <= parallelGrain) {
+				for (int k = start; k < end; k++) {
+					updateForGame(records, waves.getGame(k), month, isTest);
+				}
+				return;
+			}
+			int middle = (start+end) >>> 1;
+			invokeAll(new WaveTask(records, month, isTest, start, middle),
+					new WaveTask(records, month, isTest, middle, end));
 		}
+	}
 
-		double [] ratingsStats = toSummary(r);
-		double [] rdsStats = toSummary(rds);
+	/**
+	 * Calculate the new (tmp) ratings for both players of a single game, allocation free
+	 *
+	 * @param records
+	 * @param game
+	 * @param month
+	 * @param isTest
+	 */
+	protected void updateForGame(GameStore records, int game, int month, boolean isTest)
+	{
+		int white = records.getWhite(game);
+		int black = records.getBlack(game);
+		double whiteRating = ratings.getRating(white);
+		double whiteRd = ratings.getRd(white);
+		double blackRating = ratings.getRating(black);
+		double blackRd = ratings.getRd(black);
+
+		// use outcome for user in record or estimate
+		double whiteOutcome = (isTest) ? estimateOutcome(whiteRating, blackRating, blackRd) : getOutcomeForPlayer(records, game, white);
+		double blackOutcome = (isTest) ? estimateOutcome(blackRating, whiteRating, whiteRd) : getOutcomeForPlayer(records, game, black);
+
+		// update white
+		updateRatingsForGame(white, month, blackRating, blackRd, whiteOutcome);
+		// update black
+		updateRatingsForGame(black, month, whiteRating, whiteRd, blackOutcome);
+	}
 
-		System.out.println("Ratings: min=" +ratingsStats[0]+
-				", avg=" +ratingsStats[2]+
-				", max=" +ratingsStats[1]+
-				", RDs: min=" +rdsStats[0]+
-				", avg=" + rdsStats[2]+
-				", max=" + rdsStats[1]);
+	protected void applyForGame(GameStore records, int game, int month)
+	{
+		applyRatingsAndRds(records.getWhite(game), month);
+		applyRatingsAndRds(records.getBlack(game), month);
+	}
 
+	/**
+	 * Per-game update for one game given by player ids, e.g. a result that arrives
+	 * after training. Players not seen before are added on the defaults.
+	 *
+	 * @param month - month value (not index), not before the last month processed
+	 * @param whiteId
+	 * @param blackId
+	 * @param score - for white
+	 * @throws IllegalArgumentException if the month is before the last month
+	 */
+	public void updateForGameById(int month, int whiteId, int blackId, double score)
+	{
+		if (month < lastMonth) {
+			throw new IllegalArgumentException("Month " + month + " is before the last month processed " + lastMonth);
+		}
+		if (players == null) {
+			players = new PlayerIndex();
+		}
+		int white = players.add(whiteId);
+		int black = players.add(blackId);
+		if (black >= ratings.size() || white >= ratings.size()) {
+			preparePlayers(players);
+		}
+		double whiteRating = ratings.getRating(white);
+		double whiteRd = ratings.getRd(white);
+		double blackRating = ratings.getRating(black);
+		double blackRd = ratings.getRd(black);
+
+		updateRatingsForGame(white, month, blackRating, blackRd, score);
+		updateRatingsForGame(black, month, whiteRating, whiteRd, 1.0-score);
+		applyRatingsAndRds(white, month);
+		applyRatingsAndRds(black, month);
+		lastMonth = Math.max(lastMonth, month);
 	}
 
-	public static class UserRating
+	public static double getOutcomeForPlayer(GameStore records, int game, int user)
 	{
-		public final int userId;
+		// white
+		if(records.getWhite(game)==user) {
+			return records.getScore(game);
+		}
+
+		// black
+		return 1.0-records.getScore(game);
+	}
 
-		public double rating;
-		public double rd;
+	public static int getOpponent(GameStore records, int game, int user)
+	{
+		return (records.getWhite(game)==user) ? records.getBlack(game) : records.getWhite(game);
+	}
 
-		public double tmpRating;
-		public double tmpRd;
+	/**
+	 * Batch updates - process all games for a user month then update ratings
+	 *
+	 * @param records
+	 * @param monthIndex
+	 * @param isTest
+	 */
+	public void batchUpdatesForUserMonths(GameStore records, int monthIndex, boolean isTest)
+	{
+		int month = records.getMonthValue(monthIndex);
+		int start = records.activeStart(monthIndex);
+		int end = records.activeEnd(monthIndex);
 
-		public double monthLastPlayed = Double.NaN;
+		// process each user for the period
+		if (pool != null && end-start > parallelGrain) {
+			pool.invoke(new PeriodTask(records, month, isTest, start, end));
+		} else {
+			for (int k = start; k < end; k++) {
+				updateUserPeriod(records, k, month, isTest);
+			}
+		}
 
-		public UserRating(int aUserId){
-			userId = aUserId;
-			rating = defaultRating;
-			rd = defaultRD;
+		// map old ratings and rd to new ratings and rd
+		for (int k = start; k < end; k++)
+		{
+			applyRatingsAndRds(records.getActivePlayer(k), month);
 		}
+	}
 
-		public double getNumTimePeriodsSinceLastGame(double month)
+	/**
+	 * Calculate the new (tmp) rating and rd for one active player in a period,
+	 * only reads the ratings of the previous period
+	 *
+	 * @param records
+	 * @param active - position of the user in the active players of the month
+	 * @param month
+	 * @param isTest
+	 */
+	protected void updateUserPeriod(GameStore records, int active, int month, boolean isTest)
+	{
+		int user = records.getActivePlayer(active);
+		int start = records.playerGamesStart(active);
+		double [] outcomes = new double[records.playerGamesEnd(active)-start];
+		for (int i = 0; i < outcomes.length; i++)
 		{
-			if (Double.isNaN(monthLastPlayed))
+			int game = records.getPlayerGame(start+i);
+			if (isTest)
+			{
+				// estimate the outcome for the user and use that
+				int opponent = getOpponent(records, game, user);
+				// calculate estimated outcome for player and use as outcome
+				outcomes[i] = estimateOutcome(ratings.getRating(user), ratings.getRating(opponent), ratings.getRd(opponent));
+			}
+			else
 			{
-				monthLastPlayed = month;
+				// use outcome in record for the player
+				outcomes[i] = getOutcomeForPlayer(records, game, user);
+			}
+		}
+		// update
+		updateRatingsForUserPeriod(user, month, records, active, outcomes);
+	}
+
+	/**
+	 * Computes the tmp ratings for a range of the active players in a period
+	 */
+	protected class PeriodTask extends RecursiveAction
+	{
+		private final static long serialVersionUID = 1L;
+
+		private final GameStore records;
+		private final int month;
+		private final boolean isTest;
+		private final int start;
+		private final int end;
+
+		public PeriodTask(GameStore aRecords, int aMonth, boolean aIsTest, int aStart, int aEnd)
+		{
+			records = aRecords;
+			month = aMonth;
+			isTest = aIsTest;
+			start = aStart;
+			end = aEnd;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (end-start <= parallelGrain) {
+				for (int k = start; k < end; k++) {
+					updateUserPeriod(records, k, month, isTest);
+				}
+				return;
 			}
+			int middle = (start+end) >>> 1;
+			invokeAll(new PeriodTask(records, month, isTest, start, middle),
+					new PeriodTask(records, month, isTest, middle, end));
+		}
+	}
+
+	public void applyRatingsAndRds(int user, int month)
+	{
+		// transfer rating and rd, update last played month and the running stats
+		ratings.apply(user, month);
+	}
+
+	/**
+	 * @param user
+	 * @param month
+	 * @param records
+	 * @param active - position of the user in the active players of the month
+	 * @param outcomes
+	 */
+	public void updateRatingsForUserPeriod(
+			int user,
+			int month,
+			GameStore records,
+			int active,
+			double [] outcomes)
+	{
+		// collect information for the user-period
+		int start = records.playerGamesStart(active);
+		double [] opponentRatings = new double[outcomes.length];
+		double [] opponentRDs = new double[outcomes.length];
+
+		for (int i = 0; i < outcomes.length; i++)
+		{
+			// get opponent
+			int opponent = getOpponent(records, records.getPlayerGame(start+i), user);
+			// capture ratings and rds
+			opponentRatings[i] = ratings.getRating(opponent);
+			opponentRDs[i] = ratings.getRd(opponent);
+		}
+
+		// update
+		updateRatingsForUser(user, month, opponentRatings, opponentRDs, outcomes);
+	}
+
+	public void updateRatingsForUser(
+			int user,
+			int month,
+			double [] opponentRatings,
+			double [] opponentRDs,
+			double [] outcomes)
+	{
+		// prepare data
+		double rating = ratings.getRating(user);
+		double rd = getRdAsOf(user, month);
 
-			// (e.g., if the player competed in the most recent rating period, t=1)
-			return 1+(month-monthLastPlayed);
+		// calculate new rating and rd in one pass
+		double [] out = new double[2];
+		GlickoKernel.update(rating, rd, opponentRatings, opponentRDs, outcomes, outcomes.length, minRD, out);
+		ratings.setTmp(user, out[0], out[1]);
+	}
+
+	/**
+	 * Single opponent version of {@link #updateRatingsForUser}
+	 *
+	 * @param user
+	 * @param month
+	 * @param opponentRating
+	 * @param opponentRd
+	 * @param outcome
+	 */
+	public void updateRatingsForGame(
+			int user,
+			int month,
+			double opponentRating,
+			double opponentRd,
+			double outcome)
+	{
+		double rd = getRdAsOf(user, month);
+		GlickoKernel.updateSingle(ratings.getRating(user), rd, opponentRating, opponentRd, outcome, minRD, ratings, user);
+	}
+
+	protected void printStats()
+	{
+		if (!debug) {
+			return;
 		}
+
+		// built on the first report (O(n)), then O(1) as the table keeps them up to date
+		ratings.enableStats();
+		RunningStats r = ratings.getRatingStats();
+		RunningStats rds = ratings.getRdStats();
+		int last = metrics.size()-1;
+
+		System.out.println("Ratings: min=" +r.getMin()+
+				", avg=" +r.getMean()+
+				", max=" +r.getMax()+
+				", RDs: min=" +rds.getMin()+
+				", avg=" + rds.getMean()+
+				", max=" + rds.getMax()+
+				((last < 0) ? "" : ", time=" + metrics.getMillis(last) + " ms (" + metrics.getGamesPerSecond(last) + " games/s)"));
 	}
 
 	public static class GameRecord
@@ -625,51 +2563,40 @@ public class GlickoSystemStandalone
 	// hacked in infrastructure (pox!)
 	//
 
-	public static List<double[]> loadDataset(File file) throws IOException
-    {
-    	String raw = fastLoadFileAsString(file);
-
-    	String [] lines = raw.split("\n");
-    	List<double []> list = new LinkedList<double[]>();
-    	// skip first line
-    	for (int i = 1; i < lines.length; i++) {
-    		String [] parts = lines[i].split(",");
-    		// no error checking - who cares
-    		double [] d = new double[4];
-    		Arrays.fill(d, Double.NaN);
-    		d[0] = Double.parseDouble(parts[0]);
-    		d[1] = Double.parseDouble(parts[1]);
-    		d[2] = Double.parseDouble(parts[2]);
-    		if (parts.length==4) {
-    			d[3] = Double.parseDouble(parts[3]);
-    		}
-    		list.add(d);
-        }
-    	return list;
-    }
-	public static String fastLoadFileAsString(File file)
-		throws IOException
+	public static GameStore loadDataset(File file) throws IOException
 	{
-		StringBuffer buf = new StringBuffer();
-		char [] dataBuffer = new char[1024 * 10]; // 10KB
-
-		FileReader reader = new FileReader(file);
+		return loadDataset(file, new PlayerIndex());
+	}
 
-		try {
-			int count = 0;
-			while((count=reader.read(dataBuffer)) > 0) {
-				buf.append(dataBuffer, 0, count);
-			}
-		} finally {
-			reader.close();
+	public static GameStore loadDataset(File file, PlayerIndex players) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		GameStore store;
+		// no error checking - who cares
+		if (BinaryGameLog.isBinary(file)) {
+			store = BinaryGameLog.load(file, players);
+		} else {
+			GameStore.Builder builder = new GameStore.Builder(players);
+			GameLogReader.read(file, builder);
+			store = builder.build();
 		}
+		printLoadStats(file, store.size(), System.currentTimeMillis()-start);
+		return store;
+	}
 
-
-		return buf.toString();
+	protected static void printLoadStats(File file, long numGames, long millis)
+	{
+		if (!PRINT_DEBUG) {
+			return;
+		}
+		double mb = file.length() / (1024.0 * 1024.0);
+		double seconds = Math.max(millis, 1) / 1000.0;
+		System.out.println("Loaded " + numGames + " games from " + file.getName() +
+				": " + mb + " MB in " + millis + " ms (" + (mb/seconds) + " MB/s)");
 	}
 	public static double [] toSummary(List<Double> values){
-		double min = Double.MAX_VALUE;
-		double max = Double.MIN_VALUE;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
 
 		double sum = 0;
 		int num = 0;
@@ -690,106 +2617,174 @@ public class GlickoSystemStandalone
 	}
 	/**
 	 * Save a dataset to disk as csv, can be used for submission files
-	 * for example. Written to memory first then to disk - fast!
+	 * for example. Streamed through a reusable buffer - fast!
 	 * @param dataset
 	 * @param file
 	 * @throws IOException
 	 */
 	public final static String FIRST_LINE = "\"Month #\",\"White Player #\",\"Black Player #\",\"Score\"";
-	public static void saveDataset(List<double[]> dataset, double [] predictions, File file)
+	// decimal places written for predictions
+	public final static int PREDICTION_PLACES = 9;
+	public static void saveDataset(GameStore dataset, double [] predictions, File file)
 		throws IOException
 	{
-		// do a big malloc
-		StringBuffer buf = new StringBuffer(dataset.size()*20);
-		// header
-		buf.append(FIRST_LINE);
-		buf.append("\n");
-		// lines
-		for (int i = 0; i < predictions.length; i++) {
-			double[] record = dataset.get(i);
-			buf.append(record[0]); // m
-			buf.append(",");
-			buf.append(record[1]); // p1
-			buf.append(",");
-			buf.append(record[2]); // p2
-			buf.append(",");
-			buf.append(predictions[i]); // outcome
-			buf.append("\n");
+		long start = System.currentTimeMillis();
+		GameLogWriter writer = new GameLogWriter(file);
+		try {
+			// header
+			writer.write(FIRST_LINE).write('\n');
+			// lines
+			for (int i = 0; i < predictions.length; i++) {
+				writer.write(dataset.getMonth(i)).write(','); // m
+				writer.write(dataset.getWhiteId(i)).write(','); // p1
+				writer.write(dataset.getBlackId(i)).write(','); // p2
+				writer.write(predictions[i], PREDICTION_PLACES).write('\n'); // outcome
+			}
+		} finally {
+			writer.close();
+		}
+		printWriteStats(file, predictions.length, writer.getBytesWritten(), System.currentTimeMillis()-start);
+	}
+
+	protected static void printWriteStats(File file, long numLines, long bytes, long millis)
+	{
+		if (!PRINT_DEBUG) {
+			return;
 		}
-		// write to disk
-		writeStringToFile(buf.toString(), file);
+		double mb = bytes / (1024.0 * 1024.0);
+		double seconds = Math.max(millis, 1) / 1000.0;
+		System.out.println("Wrote " + numLines + " lines to " + file.getName() +
+				": " + mb + " MB in " + millis + " ms (" + (mb/seconds) + " MB/s)");
 	}
 
+	//
+	// snapshots of the trained state
+	//
+
+	public final static int SNAPSHOT_MAGIC = 0x474C4B4F; // "GLKO"
+	public final static int SNAPSHOT_VERSION = 1;
+	// magic, version, flags, lastMonth, numPlayers, 5 parameters
+	public final static int SNAPSHOT_HEADER_SIZE = 4*5 + 8*5;
+
 	/**
-	 * Write a string to disk
+	 * Save the rating state, parameters and last processed month as a binary snapshot.
+	 * <br />
+	 * Little endian layout: the header (magic, version, flags, last month, number of players,
+	 * then the five parameters as doubles) followed by the columns player id (int),
+	 * rating, rd and month last played (double, NaN if never).
 	 *
-	 * @param data
 	 * @param file
 	 * @throws IOException
 	 */
-	public static void writeStringToFile(String data, File file)
-			throws IOException
+	public void saveSnapshot(File file)
+		throws IOException
 	{
-
-			// write to disk
-			FileWriter writer = new FileWriter(file);
-			try {
-				writer.write(data);
-			} finally {
-				writer.close();
+		// the index may hold players that are not rated (e.g. from a test store)
+		int n = (players == null) ? 0 : ratings.size();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.truncate(0);
+			ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt(SNAPSHOT_MAGIC);
+			buf.putInt(SNAPSHOT_VERSION);
+			buf.putInt((updateAfterEveryGame ? 1 : 0) | (updateRatingsDuringtest ? 2 : 0));
+			buf.putInt(lastMonth);
+			buf.putInt(n);
+			buf.putDouble(defaultRating);
+			buf.putDouble(defaultRD);
+			buf.putDouble(minRD);
+			buf.putDouble(defaultRDDecayTimePeriod);
+			buf.putDouble(avgRD);
+			// columns
+			for (int column = 0; column < 4; column++)
+			{
+				for (int i = 0; i < n; i++)
+				{
+					if (buf.remaining() < 8) {
+						writeFully(channel, buf);
+					}
+					switch (column) {
+						case 0: buf.putInt(players.getId(i)); break;
+						case 1: buf.putDouble(ratings.getRating(i)); break;
+						case 2: buf.putDouble(ratings.getRd(i)); break;
+						default: buf.putDouble(ratings.getMonthLastPlayed(i)); break;
+					}
+				}
 			}
-	}
-	public static Map<Integer,List<double[]>> getGamesByUser(List<double[]> records)
-	{
-		Map<Integer,List<double[]>> userMap = new HashMap<Integer, List<double[]>>();
-
-		// process all records
-		for(double[] record : records) {
-			// white
-			addUser(new Integer((int)record[1]), record, userMap);
-			// black
-			addUser(new Integer((int)record[2]), record, userMap);
-		}
-		return userMap;
-	}
-	protected static void addUser(Integer userId, double[] record, Map<Integer, List<double[]>> userMap) {
-		List<double[]> list = userMap.get(userId);
-		if (list == null) {
-			list = new LinkedList<double[]>();
-			userMap.put(userId, list);
+			writeFully(channel, buf);
+		} finally {
+			raf.close();
 		}
-		list.add(record);
 	}
-	public static Map<Short,List<double[]>> getGamesByMonth(List<double[]> records)
-	{
-		Map<Short,List<double[]>> monthMap = new HashMap<Short, List<double[]>>();
 
-		// process all records
-		for(double[] record : records) {
-			addMonth(new Short((short)record[0]), record, monthMap);
-		}
-		return monthMap;
+	private static DoubleBuffer slice(DoubleBuffer buf, int start, int length)
+	{
+		DoubleBuffer view = buf.duplicate();
+		view.position(start);
+		view.limit(start + length);
+		return view.slice();
 	}
-	protected static void addMonth(Short monthId, double[] record, Map<Short, List<double[]>> monthMap) {
-		List<double[]> list = monthMap.get(monthId);
-		if (list == null) {
-			list = new LinkedList<double[]>();
-			monthMap.put(monthId, list);
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf)
+		throws IOException
+	{
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
 		}
-		list.add(record);
+		buf.clear();
 	}
 
-	public List<Short> getOrderedMonthList(Map<Short, List<double[]>> monthMap) {
-		List<Short> list = new LinkedList<Short>();
-		list.addAll(monthMap.keySet());
-		Collections.sort(list);
-		return list;
-	}
+	/**
+	 * Restore a model from a snapshot, the file is memory mapped and copied in bulk
+	 *
+	 * @param file
+	 * @return a model ready to predict or to continue training, use its
+	 * 	{@link #getPlayerIndex()} when loading further games
+	 * @throws IOException
+	 */
+	public static GlickoSystemStandalone loadSnapshot(File file)
+		throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			if (buf.remaining() < SNAPSHOT_HEADER_SIZE || buf.getInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Not a rating snapshot: " + file);
+			}
+			int version = buf.getInt();
+			if (version != SNAPSHOT_VERSION) {
+				throw new IOException("Unsupported snapshot version " + version + " in " + file);
+			}
+			int flags = buf.getInt();
+			int month = buf.getInt();
+			int n = buf.getInt();
+			GlickoSystemStandalone model = getInstance(
+					(flags & 1) != 0,
+					(flags & 2) != 0,
+					buf.getDouble(),
+					buf.getDouble(),
+					buf.getDouble(),
+					buf.getDouble(),
+					buf.getDouble());
+			if (buf.remaining() != n * (4L + 8*3)) {
+				throw new IOException("Truncated snapshot, expected " + n + " players in " + file);
+			}
 
-	public List<Integer> getOrderedUserList(Map<Integer, List<double[]>> userMap) {
-		List<Integer> list = new LinkedList<Integer>();
-		list.addAll(userMap.keySet());
-		Collections.sort(list);
-		return list;
+			// columns, straight from the mapped file
+			PlayerIndex index = new PlayerIndex(n);
+			for (int i = 0; i < n; i++) {
+				index.add(buf.getInt());
+			}
+			DoubleBuffer columns = buf.asDoubleBuffer();
+			model.ratings.load(n, slice(columns, 0, n), slice(columns, n, n), slice(columns, 2*n, n));
+			model.players = index;
+			model.lastMonth = month;
+			return model;
+		} finally {
+			raf.close();
+		}
 	}
 }
@@ -0,0 +1,548 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Re-rating when games arrive late for months already processed, without training
+ * again from the first month.
+ * <br />
+ * Each month keeps a delta of the players it changed: the state (rating, rd, month
+ * last played) of its active players before and after the month. Adding games to a
+ * past month m replays months m..now, but only for the players whose ratings can
+ * change:
+ * <ul>
+ * <li>a player is dirty once their state differs from the recorded trajectory,
+ * the players of the late games are dirty from their month on</li>
+ * <li>batch periods: only the active players who are dirty or meet a dirty opponent
+ * in the month are computed again</li>
+ * <li>per-game periods: a month with a dirty player is replayed in full (the states
+ * between games are not recorded)</li>
+ * <li>a clean player read by a replay is put on their recorded state at the start
+ * of the month (from the deltas) and goes back to their final state afterwards</li>
+ * <li>a recomputed player whose new state equals the recorded one is clean again,
+ * the replay stops once no player is dirty</li>
+ * </ul>
+ * Clean players and months without a dirty player are not touched at all.
+ * The result is the same as training from scratch on all of the games, with the
+ * late games after the others of their month. Months after the last one processed
+ * are trained as usual.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class IncrementalTrainer
+{
+	private final GlickoSystemStandalone model;
+	private final PlayerIndex players;
+	// processed months in month order
+	private final List<Month> months = new ArrayList<Month>();
+	// late games waiting for update()
+	private GameStore.Builder pending;
+
+	// replay state: players off their recorded path, and the final states of the
+	// clean players that were moved to an earlier state
+	private boolean [] dirty;
+	private int numDirty;
+	private boolean [] touched;
+	private double [] saved;
+
+	// work done by the last update
+	private int monthsReplayed;
+	private long playersRecomputed;
+
+	/**
+	 * The games of a month (a month of a store) and the states it changed
+	 */
+	protected static class Month
+	{
+		GameStore store;
+		int index;
+		// by position in the active players of the month, null until processed
+		double [] before;
+		double [] after;
+
+		Month(GameStore aStore, int aIndex)
+		{
+			store = aStore;
+			index = aIndex;
+		}
+
+		int getValue()
+		{
+			return store.getMonthValue(index);
+		}
+	}
+
+	/**
+	 * @param aModel - untrained model, only trained through this trainer from now on,
+	 * 	without a {@link RatingHistory} (replays go back in time)
+	 * @param aPlayers - index all games are mapped through
+	 */
+	public IncrementalTrainer(GlickoSystemStandalone aModel, PlayerIndex aPlayers)
+	{
+		if (aModel.ratings.getHistory() != null) {
+			throw new IllegalArgumentException("Rating history is append only, it cannot follow a re-rating");
+		}
+		model = aModel;
+		players = aPlayers;
+		pending = new GameStore.Builder(players);
+	}
+
+	public PlayerIndex getPlayerIndex()
+	{
+		return players;
+	}
+
+	/**
+	 * Train on the months of a store in order, months must be after those already
+	 * processed
+	 *
+	 * @param games - store over the trainer's player index
+	 */
+	public void train(GameStore games)
+	{
+		if (games.getPlayerIndex() != players) {
+			throw new IllegalArgumentException("Store must use the trainer's player index");
+		}
+		model.preparePlayers(players);
+		for (int m = 0; m < games.numMonths(); m++)
+		{
+			if (!months.isEmpty() && games.getMonthValue(m) <= months.get(months.size()-1).getValue()) {
+				throw new IllegalArgumentException("Month " + games.getMonthValue(m) + " is already processed, use addGame");
+			}
+			Month month = new Month(games, m);
+			months.add(month);
+			month.before = capture(month);
+			model.updateMonth(games, m, false);
+			month.after = capture(month);
+		}
+	}
+
+	/**
+	 * Queue a game for any month, applied by {@link #update()}
+	 *
+	 * @param month - month value
+	 * @param whiteId
+	 * @param blackId
+	 * @param score - for white
+	 */
+	public void addGame(int month, int whiteId, int blackId, double score)
+	{
+		pending.game(month, whiteId, blackId, score);
+	}
+
+	/**
+	 * Merge the queued games into their months and re-rate from the earliest one
+	 */
+	public void update()
+	{
+		monthsReplayed = 0;
+		playersRecomputed = 0;
+		if (pending.size() == 0) {
+			return;
+		}
+		GameStore late = pending.build();
+		pending = new GameStore.Builder(players);
+		model.preparePlayers(players);
+
+		// late months up to the last one processed are merged, later ones are new
+		int lastValue = months.isEmpty() ? Integer.MIN_VALUE : months.get(months.size()-1).getValue();
+		int trailing = 0;
+		while (trailing < late.numMonths() && late.getMonthValue(trailing) <= lastValue) {
+			trailing++;
+		}
+		Month [] seeded = new Month[trailing];
+		for (int m = 0; m < trailing; m++)
+		{
+			int value = late.getMonthValue(m);
+			int position = find(value);
+			if (position < months.size() && months.get(position).getValue() == value) {
+				months.set(position, merge(months.get(position), late, m));
+			} else {
+				months.add(position, new Month(monthOf(late, m), 0));
+			}
+			seeded[m] = months.get(position);
+		}
+
+		if (trailing > 0)
+		{
+			int n = players.size();
+			dirty = new boolean[n];
+			numDirty = 0;
+			touched = new boolean[n];
+			saved = new double[3*n];
+			boolean perGame = model.isUpdateAfterEveryGame();
+			int next = 0;
+			for (int t = find(late.getMonthValue(0)); t < months.size(); t++)
+			{
+				Month month = months.get(t);
+				if (next < trailing && seeded[next] == month) {
+					// the players of the late games leave their recorded path here
+					int m = next++;
+					for (int k = late.activeStart(m); k < late.activeEnd(m); k++) {
+						int player = late.getActivePlayer(k);
+						enter(player, t);
+						setDirty(player, true);
+					}
+				} else if (numDirty == 0 && next == trailing) {
+					// everyone is back on their recorded path
+					break;
+				}
+				if (perGame) {
+					replayPerGame(month, t);
+				} else {
+					replayBatch(month, t);
+				}
+			}
+			dirty = null;
+			touched = null;
+			saved = null;
+		}
+
+		// later months are new
+		for (int m = trailing; m < late.numMonths(); m++)
+		{
+			Month month = new Month(late, m);
+			months.add(month);
+			month.before = capture(month);
+			model.updateMonth(late, m, false);
+			month.after = capture(month);
+		}
+	}
+
+	/**
+	 * Batch period: compute only the players who are dirty or play a dirty opponent
+	 */
+	protected void replayBatch(Month month, int t)
+	{
+		GameStore store = month.store;
+		int m = month.index;
+		int value = store.getMonthValue(m);
+		int start = store.activeStart(m);
+		int end = store.activeEnd(m);
+		boolean [] affected = new boolean[end-start];
+		boolean any = false;
+		for (int k = start; k < end; k++)
+		{
+			int player = store.getActivePlayer(k);
+			boolean a = (month.after == null) || dirty[player];
+			for (int i = store.playerGamesStart(k); !a && i < store.playerGamesEnd(k); i++) {
+				a = dirty[GlickoSystemStandalone.getOpponent(store, store.getPlayerGame(i), player)];
+			}
+			affected[k-start] = a;
+			any |= a;
+		}
+		if (!any) {
+			return;
+		}
+		ensureRecords(month);
+
+		// the computation reads the affected players and their opponents
+		for (int k = start; k < end; k++) {
+			if (affected[k-start]) {
+				int player = store.getActivePlayer(k);
+				enter(player, t);
+				for (int i = store.playerGamesStart(k); i < store.playerGamesEnd(k); i++) {
+					enter(GlickoSystemStandalone.getOpponent(store, store.getPlayerGame(i), player), t);
+				}
+				record(month.before, 3*(k-start), player);
+			}
+		}
+		for (int k = start; k < end; k++) {
+			if (affected[k-start]) {
+				model.updateUserPeriod(store, k, value, false);
+				playersRecomputed++;
+			}
+		}
+		for (int k = start; k < end; k++) {
+			if (affected[k-start]) {
+				model.applyRatingsAndRds(store.getActivePlayer(k), value);
+			}
+		}
+		for (int k = start; k < end; k++) {
+			if (affected[k-start]) {
+				leave(month, 3*(k-start), store.getActivePlayer(k));
+			}
+		}
+		// clean opponents go back to their final state
+		for (int k = start; k < end; k++) {
+			if (affected[k-start]) {
+				int player = store.getActivePlayer(k);
+				for (int i = store.playerGamesStart(k); i < store.playerGamesEnd(k); i++) {
+					int opponent = GlickoSystemStandalone.getOpponent(store, store.getPlayerGame(i), player);
+					if (!dirty[opponent]) {
+						restoreFinal(opponent);
+					}
+				}
+			}
+		}
+		monthsReplayed++;
+	}
+
+	/**
+	 * Per-game period: replay the whole month if any of its players is dirty
+	 */
+	protected void replayPerGame(Month month, int t)
+	{
+		GameStore store = month.store;
+		int m = month.index;
+		int start = store.activeStart(m);
+		int end = store.activeEnd(m);
+		boolean any = (month.after == null);
+		for (int k = start; !any && k < end; k++) {
+			any = dirty[store.getActivePlayer(k)];
+		}
+		if (!any) {
+			return;
+		}
+		ensureRecords(month);
+
+		for (int k = start; k < end; k++) {
+			int player = store.getActivePlayer(k);
+			enter(player, t);
+			record(month.before, 3*(k-start), player);
+		}
+		model.perGameUpdatesForUserMonths(store, m, false);
+		for (int k = start; k < end; k++) {
+			leave(month, 3*(k-start), store.getActivePlayer(k));
+		}
+		playersRecomputed += end - start;
+		monthsReplayed++;
+	}
+
+	/**
+	 * Put a clean player on their recorded state at the start of month t, keeping
+	 * their current (final) state to go back to. Dirty players are already on their
+	 * new path.
+	 */
+	private void enter(int player, int t)
+	{
+		if (dirty[player]) {
+			return;
+		}
+		RatingTable table = model.ratings;
+		if (!touched[player]) {
+			touched[player] = true;
+			saved[3*player] = table.getRating(player);
+			saved[3*player+1] = table.getRd(player);
+			saved[3*player+2] = table.getMonthLastPlayed(player);
+		}
+		// the before state of the next recorded month the player played in
+		for (int u = t; u < months.size(); u++)
+		{
+			Month month = months.get(u);
+			int position = (month.before == null) ? -1 : position(month, player);
+			if (position >= 0 && !Double.isNaN(month.before[3*position])) {
+				int i = 3*position;
+				table.set(player, month.before[i], month.before[i+1], month.before[i+2]);
+				return;
+			}
+		}
+		restoreFinal(player);
+	}
+
+	/**
+	 * A recomputed player is dirty if they moved off the recorded after state (always,
+	 * in a month with no record), otherwise they go back to their final state
+	 */
+	private void leave(Month month, int i, int player)
+	{
+		RatingTable table = model.ratings;
+		double [] after = month.after;
+		boolean changed = Double.compare(after[i], table.getRating(player)) != 0 ||
+				Double.compare(after[i+1], table.getRd(player)) != 0 ||
+				Double.compare(after[i+2], table.getMonthLastPlayed(player)) != 0;
+		if (changed) {
+			record(after, i, player);
+			setDirty(player, true);
+		} else {
+			setDirty(player, false);
+			restoreFinal(player);
+		}
+	}
+
+	private void restoreFinal(int player)
+	{
+		if (touched[player]) {
+			model.ratings.set(player, saved[3*player], saved[3*player+1], saved[3*player+2]);
+		}
+	}
+
+	private void setDirty(int player, boolean value)
+	{
+		if (dirty[player] != value) {
+			dirty[player] = value;
+			numDirty += value ? 1 : -1;
+		}
+	}
+
+	private void record(double [] state, int i, int player)
+	{
+		RatingTable table = model.ratings;
+		state[i] = table.getRating(player);
+		state[i+1] = table.getRd(player);
+		state[i+2] = table.getMonthLastPlayed(player);
+	}
+
+	/**
+	 * Records for a month that has none (all NaN, so nothing compares as unchanged)
+	 */
+	private void ensureRecords(Month month)
+	{
+		if (month.after == null) {
+			int size = 3*(month.store.activeEnd(month.index) - month.store.activeStart(month.index));
+			month.before = new double[size];
+			month.after = new double[size];
+			Arrays.fill(month.before, Double.NaN);
+			Arrays.fill(month.after, Double.NaN);
+		}
+	}
+
+	/**
+	 * @param month
+	 * @param player
+	 * @return position of the player in the active players of the month, -1 if absent
+	 */
+	protected static int position(Month month, int player)
+	{
+		GameStore store = month.store;
+		int start = store.activeStart(month.index);
+		int low = start;
+		int high = store.activeEnd(month.index) - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int p = store.getActivePlayer(mid);
+			if (p < player) {
+				low = mid + 1;
+			} else if (p > player) {
+				high = mid - 1;
+			} else {
+				return mid - start;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return rating, rd and month last played of the active players of a month
+	 */
+	protected double [] capture(Month month)
+	{
+		GameStore store = month.store;
+		int start = store.activeStart(month.index);
+		int end = store.activeEnd(month.index);
+		double [] state = new double[3*(end-start)];
+		RatingTable table = model.ratings;
+		for (int k = start; k < end; k++)
+		{
+			int player = store.getActivePlayer(k);
+			int i = 3*(k-start);
+			state[i] = table.getRating(player);
+			state[i+1] = table.getRd(player);
+			state[i+2] = table.getMonthLastPlayed(player);
+		}
+		return state;
+	}
+
+	/**
+	 * @param value - month value
+	 * @return position of the month, or where it would go
+	 */
+	protected int find(int value)
+	{
+		int low = 0;
+		int high = months.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (months.get(mid).getValue() < value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * A month with the late games after its own, with the records of its players
+	 */
+	protected Month merge(Month month, GameStore late, int m)
+	{
+		GameStore.Builder builder = new GameStore.Builder(players);
+		copyMonth(month.store, month.index, builder);
+		copyMonth(late, m, builder);
+		Month merged = new Month(builder.build(), 0);
+		merged.before = rekey(month, month.before, merged);
+		merged.after = rekey(month, month.after, merged);
+		return merged;
+	}
+
+	/**
+	 * Move the states of a month onto the (larger) active players of the merged month,
+	 * players new to the month get a NaN rating so they never compare as unchanged
+	 */
+	private static double [] rekey(Month month, double [] state, Month merged)
+	{
+		GameStore from = month.store;
+		GameStore to = merged.store;
+		int start = to.activeStart(0);
+		double [] result = new double[3*(to.activeEnd(0)-start)];
+		Arrays.fill(result, Double.NaN);
+		int k = from.activeStart(month.index);
+		int fromEnd = from.activeEnd(month.index);
+		for (int j = start; j < to.activeEnd(0); j++)
+		{
+			// both are in player order
+			while (k < fromEnd && from.getActivePlayer(k) < to.getActivePlayer(j)) {
+				k++;
+			}
+			if (k < fromEnd && from.getActivePlayer(k) == to.getActivePlayer(j)) {
+				System.arraycopy(state, 3*(k-from.activeStart(month.index)), result, 3*(j-start), 3);
+			}
+		}
+		return result;
+	}
+
+	private GameStore monthOf(GameStore store, int m)
+	{
+		GameStore.Builder builder = new GameStore.Builder(players);
+		copyMonth(store, m, builder);
+		return builder.build();
+	}
+
+	private static void copyMonth(GameStore store, int m, GameStore.Builder builder)
+	{
+		for (int i = store.monthStart(m); i < store.monthEnd(m); i++) {
+			builder.game(store.getMonth(i), store.getWhiteId(i), store.getBlackId(i), store.getScore(i));
+		}
+	}
+
+	/**
+	 * @return months recomputed (in whole or in part) by the last update
+	 */
+	public int getMonthsReplayed()
+	{
+		return monthsReplayed;
+	}
+
+	/**
+	 * @return player periods recomputed by the last update
+	 */
+	public long getPlayersRecomputed()
+	{
+		return playersRecomputed;
+	}
+
+	/**
+	 * @return player periods in all processed months
+	 */
+	public long getTotalPlayerPeriods()
+	{
+		long total = 0;
+		for (Month month : months) {
+			total += month.store.activeEnd(month.index) - month.store.activeStart(month.index);
+		}
+		return total;
+	}
+}
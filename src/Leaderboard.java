@@ -0,0 +1,363 @@
+import java.util.Arrays;
+
+/**
+ * Players ordered by rating (highest first, ties by lowest index), kept up to date
+ * one player at a time.
+ * <br />
+ * An order statistics treap over primitive arrays where the node of a player is its
+ * dense index, so there is no allocation after the arrays have grown. Moving a player,
+ * their rank, the player at a rank and counts of players above a rating are all
+ * O(log n) expected, listing k players from a rank is O(log n + k).
+ * <br />
+ * Not thread safe, updates must come from one thread at a time.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class Leaderboard
+{
+	private final static int NONE = -1;
+
+	private int size;
+	private int root = NONE;
+	private double [] rating = new double[0];
+	private int [] priority = new int[0];
+	private int [] left = new int[0];
+	private int [] right = new int[0];
+	private int [] count = new int[0]; // nodes in the subtree
+	private int [] stack = new int[64];
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Add players [size, numPlayers) all with the same rating
+	 * @param numPlayers
+	 * @param value
+	 */
+	public void grow(int numPlayers, double value)
+	{
+		if (numPlayers <= size) {
+			return;
+		}
+		if (numPlayers > rating.length) {
+			int capacity = Math.max(numPlayers, rating.length + (rating.length >> 1));
+			rating = Arrays.copyOf(rating, capacity);
+			priority = Arrays.copyOf(priority, capacity);
+			left = Arrays.copyOf(left, capacity);
+			right = Arrays.copyOf(right, capacity);
+			count = Arrays.copyOf(count, capacity);
+		}
+		for (int player = size; player < numPlayers; player++)
+		{
+			rating[player] = value;
+			priority[player] = mix(player);
+			left[player] = NONE;
+			right[player] = NONE;
+			count[player] = 1;
+			root = insert(root, player);
+		}
+		size = numPlayers;
+	}
+
+	/**
+	 * Move a player to a new rating
+	 * @param player
+	 * @param value
+	 */
+	public void set(int player, double value)
+	{
+		if (rating[player] == value) {
+			return;
+		}
+		root = remove(root, player);
+		rating[player] = value;
+		left[player] = NONE;
+		right[player] = NONE;
+		count[player] = 1;
+		root = insert(root, player);
+	}
+
+	public double getRating(int player)
+	{
+		return rating[player];
+	}
+
+	/**
+	 * @param player
+	 * @return number of players ahead of the player (0 for the top player)
+	 */
+	public int getRank(int player)
+	{
+		int rank = 0;
+		int node = root;
+		while (node != player)
+		{
+			if (before(player, node)) {
+				node = left[node];
+			} else {
+				rank += count(left[node]) + 1;
+				node = right[node];
+			}
+		}
+		return rank + count(left[player]);
+	}
+
+	/**
+	 * @param rank - 0 for the top player
+	 * @return the player at the rank
+	 */
+	public int getPlayerAt(int rank)
+	{
+		if (rank < 0 || rank >= size) {
+			throw new IndexOutOfBoundsException("Rank " + rank + " of " + size);
+		}
+		int node = root;
+		while (true)
+		{
+			int leftCount = count(left[node]);
+			if (rank < leftCount) {
+				node = left[node];
+			} else if (rank == leftCount) {
+				return node;
+			} else {
+				rank -= leftCount + 1;
+				node = right[node];
+			}
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return number of players rated strictly above the value
+	 */
+	public int countAbove(double value)
+	{
+		int total = 0;
+		int node = root;
+		while (node != NONE)
+		{
+			if (rating[node] > value) {
+				total += count(left[node]) + 1;
+				node = right[node];
+			} else {
+				node = left[node];
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @param value
+	 * @return number of players rated at or above the value
+	 */
+	public int countAtLeast(double value)
+	{
+		int total = 0;
+		int node = root;
+		while (node != NONE)
+		{
+			if (rating[node] >= value) {
+				total += count(left[node]) + 1;
+				node = right[node];
+			} else {
+				node = left[node];
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Players in rank order from a rank
+	 *
+	 * @param fromRank - 0 for the top player
+	 * @param out - filled with players, as many as fit
+	 * @return number of players written
+	 */
+	public int getPlayers(int fromRank, int [] out)
+	{
+		if (fromRank < 0 || fromRank >= size || out.length == 0) {
+			return 0;
+		}
+		// stack the path to the first player, each entry still has itself and its right subtree to visit
+		int depth = 0;
+		int node = root;
+		int rank = fromRank;
+		while (node != NONE)
+		{
+			int leftCount = count(left[node]);
+			if (rank < leftCount) {
+				depth = push(depth, node);
+				node = left[node];
+			} else if (rank == leftCount) {
+				depth = push(depth, node);
+				break;
+			} else {
+				rank -= leftCount + 1;
+				node = right[node];
+			}
+		}
+
+		// in order from there
+		int n = 0;
+		while (n < out.length && depth > 0)
+		{
+			node = stack[--depth];
+			out[n++] = node;
+			for (node = right[node]; node != NONE; node = left[node]) {
+				depth = push(depth, node);
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @param k
+	 * @return the top k players (fewer if there are not k)
+	 */
+	public int [] getTop(int k)
+	{
+		int [] out = new int[Math.min(k, size)];
+		getPlayers(0, out);
+		return out;
+	}
+
+	/**
+	 * @param low
+	 * @param high
+	 * @return players rated in [low, high], highest first
+	 */
+	public int [] getPlayersInBand(double low, double high)
+	{
+		int from = countAbove(high);
+		int to = countAtLeast(low);
+		int [] out = new int[Math.max(0, to-from)];
+		getPlayers(from, out);
+		return out;
+	}
+
+	private int push(int depth, int node)
+	{
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth*2);
+		}
+		stack[depth] = node;
+		return depth+1;
+	}
+
+	/**
+	 * @return true if a is ranked ahead of b
+	 */
+	private boolean before(int a, int b)
+	{
+		return rating[a] > rating[b] || (rating[a] == rating[b] && a < b);
+	}
+
+	private int count(int node)
+	{
+		return (node == NONE) ? 0 : count[node];
+	}
+
+	private void update(int node)
+	{
+		count[node] = count(left[node]) + count(right[node]) + 1;
+	}
+
+	private int insert(int tree, int node)
+	{
+		if (tree == NONE) {
+			return node;
+		}
+		if (priority[node] > priority[tree])
+		{
+			// node becomes the root of this subtree
+			split(tree, node);
+			update(node);
+			return node;
+		}
+		if (before(node, tree)) {
+			left[tree] = insert(left[tree], node);
+		} else {
+			right[tree] = insert(right[tree], node);
+		}
+		update(tree);
+		return tree;
+	}
+
+	/**
+	 * Split a tree into the players ahead of and behind a node, stored as the
+	 * node's left and right children
+	 */
+	private void split(int tree, int node)
+	{
+		if (tree == NONE) {
+			left[node] = NONE;
+			right[node] = NONE;
+			return;
+		}
+		if (before(tree, node)) {
+			split(right[tree], node);
+			right[tree] = left[node];
+			update(tree);
+			left[node] = tree;
+		} else {
+			split(left[tree], node);
+			left[tree] = right[node];
+			update(tree);
+			right[node] = tree;
+		}
+	}
+
+	private int remove(int tree, int node)
+	{
+		if (tree == node) {
+			return merge(left[node], right[node]);
+		}
+		if (before(node, tree)) {
+			left[tree] = remove(left[tree], node);
+		} else {
+			right[tree] = remove(right[tree], node);
+		}
+		update(tree);
+		return tree;
+	}
+
+	/**
+	 * @param a - all ahead of b
+	 * @param b
+	 * @return the joined tree
+	 */
+	private int merge(int a, int b)
+	{
+		if (a == NONE) {
+			return b;
+		}
+		if (b == NONE) {
+			return a;
+		}
+		if (priority[a] > priority[b]) {
+			right[a] = merge(right[a], b);
+			update(a);
+			return a;
+		}
+		left[b] = merge(a, left[b]);
+		update(b);
+		return b;
+	}
+
+	/**
+	 * @param player
+	 * @return a well spread priority from the player index
+	 */
+	private static int mix(int player)
+	{
+		int h = player * 0x9E3779B9;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return h;
+	}
+}
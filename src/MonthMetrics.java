@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+/**
+ * Timing of each month (rating period) processed by a model: the month, number of
+ * games and wall time, kept in primitive arrays.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class MonthMetrics
+{
+	private int size;
+	private int [] months = new int[16];
+	private int [] games = new int[16];
+	private long [] nanos = new long[16];
+
+	/**
+	 * @param month
+	 * @param numGames
+	 * @param elapsedNanos
+	 */
+	public synchronized void record(int month, int numGames, long elapsedNanos)
+	{
+		if (size == months.length) {
+			months = Arrays.copyOf(months, size*2);
+			games = Arrays.copyOf(games, size*2);
+			nanos = Arrays.copyOf(nanos, size*2);
+		}
+		months[size] = month;
+		games[size] = numGames;
+		nanos[size] = elapsedNanos;
+		size++;
+	}
+
+	public synchronized void clear()
+	{
+		size = 0;
+	}
+
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	public synchronized int getMonth(int i)
+	{
+		return months[i];
+	}
+
+	public synchronized int getGames(int i)
+	{
+		return games[i];
+	}
+
+	public synchronized long getNanos(int i)
+	{
+		return nanos[i];
+	}
+
+	public double getMillis(int i)
+	{
+		return getNanos(i) / 1e6;
+	}
+
+	public double getGamesPerSecond(int i)
+	{
+		return getGames(i) / (Math.max(getNanos(i), 1) / 1e9);
+	}
+
+	public synchronized long getTotalGames()
+	{
+		long total = 0;
+		for (int i = 0; i < size; i++) {
+			total += games[i];
+		}
+		return total;
+	}
+
+	public synchronized long getTotalNanos()
+	{
+		long total = 0;
+		for (int i = 0; i < size; i++) {
+			total += nanos[i];
+		}
+		return total;
+	}
+
+	public double getTotalGamesPerSecond()
+	{
+		return getTotalGames() / (Math.max(getTotalNanos(), 1) / 1e9);
+	}
+
+	@Override
+	public String toString()
+	{
+		return size() + " months, " + getTotalGames() + " games in " + (getTotalNanos()/1e6) + " ms (" + getTotalGamesPerSecond() + " games/s)";
+	}
+}
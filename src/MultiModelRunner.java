@@ -0,0 +1,139 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Feeds a single scan of a game store to a number of rating systems at once.
+ * <br />
+ * Months are visited once in order. For each month every system first predicts the
+ * games (once past the training months) and then updates on the recorded outcomes,
+ * the systems of a month run concurrently as they only share the read-only store.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class MultiModelRunner
+{
+	private final List<String> names = new ArrayList<String>();
+	private final List<RatingSystem> systems = new ArrayList<RatingSystem>();
+
+	public MultiModelRunner add(String name, RatingSystem system)
+	{
+		names.add(name);
+		systems.add(system);
+		return this;
+	}
+
+	public int size()
+	{
+		return systems.size();
+	}
+
+	public String getName(int i)
+	{
+		return names.get(i);
+	}
+
+	public RatingSystem getSystem(int i)
+	{
+		return systems.get(i);
+	}
+
+	/**
+	 * One pass over the months of the store
+	 *
+	 * @param records
+	 * @param trainMonths - months [0, trainMonths) are only used for training
+	 * @param threads - 1 for a sequential run
+	 * @return predictions indexed by system then game, filled from trainMonths on
+	 * @throws Exception
+	 */
+	public double [][] run(final GameStore records, final int trainMonths, int threads)
+		throws Exception
+	{
+		final double [][] predictions = new double[systems.size()][records.size()];
+		for (RatingSystem system : systems) {
+			system.preparePlayers(records.getPlayerIndex());
+		}
+
+		ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+		try {
+			for (int m = 0; m < records.numMonths(); m++)
+			{
+				final int month = m;
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				for (int i = 0; i < systems.size(); i++)
+				{
+					final RatingSystem system = systems.get(i);
+					final double [] systemPredictions = predictions[i];
+					tasks.add(new Callable<Void>() {
+						public Void call() {
+							if (month >= trainMonths) {
+								system.predictMonth(records, month, systemPredictions);
+							}
+							system.updateMonth(records, month, false);
+							return null;
+						}
+					});
+				}
+				if (executor == null) {
+					for (Callable<Void> task : tasks) {
+						task.call();
+					}
+				} else {
+					// wait for all systems before moving to the next month
+					for (Future<Void> future : executor.invokeAll(tasks)) {
+						future.get();
+					}
+				}
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
+		return predictions;
+	}
+
+	/**
+	 * Usage: java MultiModelRunner training_data.csv [holdout_months]
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		// most basic validation
+		if (args.length < 1) {
+			System.out.println("Usage: java MultiModelRunner training_data.csv [holdout_months]");
+			System.exit(1);
+		}
+		int holdout = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+		GameStore games = GlickoSystemStandalone.loadDataset(new File(args[0]));
+		int trainMonths = Math.max(0, games.numMonths() - holdout);
+
+		// the models run concurrently, so no per-month debug output
+		GlickoSystemStandalone batch = GlickoSystemStandalone.getInstanceNoBatchAndNoUpdateDuringTest();
+		GlickoSystemStandalone perGame = GlickoSystemStandalone.getInstanceBatchAndNoUpdateDuringTest();
+		batch.setDebug(false);
+		perGame.setDebug(false);
+		MultiModelRunner runner = new MultiModelRunner()
+			.add("Glicko (batch)", batch)
+			.add("Glicko (per-game)", perGame)
+			.add("Elo", new EloSystem())
+			.add("Glicko-2", new Glicko2System());
+
+		long start = System.currentTimeMillis();
+		double [][] predictions = runner.run(games, trainMonths, Runtime.getRuntime().availableProcessors());
+		System.out.println("Ran " + runner.size() + " systems over " + games.size() + " games in " + (System.currentTimeMillis()-start) + " ms");
+		for (int i = 0; i < runner.size(); i++) {
+			double error = Evaluation.monthlyPlayerRmse(games, trainMonths, games.numMonths(), predictions[i]);
+			System.out.println(runner.getName(i) + ": " + error);
+		}
+	}
+}
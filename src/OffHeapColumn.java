@@ -0,0 +1,218 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Column of doubles outside the java heap, in direct buffers or a memory-mapped file.
+ * <br />
+ * Values live in fixed size segments (SEGMENT_SIZE doubles) that are added as the
+ * column grows, the garbage collector never scans the values. The first segment
+ * starts at the size first asked for (at least MIN_SEGMENT_SIZE) and doubles until it
+ * is full size, so small columns stay small, only those doublings copy values (a
+ * mapped column maps a larger region of the same file). A mapped column keeps its size in an 8 byte header at the start of the
+ * file, followed by the segments, so reopening the file restores the column as it
+ * was without reading it (pages are loaded as they are touched).
+ * <br />
+ * File layout (little endian): size (long), then size doubles (the file is
+ * extended as the first segment doubles, then a segment at a time).
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class OffHeapColumn implements DoubleColumn
+{
+	public final static int SEGMENT_BITS = 20;
+	public final static int SEGMENT_SIZE = 1 << SEGMENT_BITS; // doubles, 8MB
+	private final static int SEGMENT_MASK = SEGMENT_SIZE - 1;
+	public final static int HEADER_SIZE = 8;
+	// smallest first segment, doubles
+	public final static int MIN_SEGMENT_SIZE = 1 << 10;
+
+	// null for direct buffers
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+
+	private int size;
+	private int numSegments;
+	// doubles in the first segment, SEGMENT_SIZE once there is a second
+	private int firstCapacity;
+	private DoubleBuffer [] segments = new DoubleBuffer[0];
+	private MappedByteBuffer [] mapped = new MappedByteBuffer[0];
+
+	/**
+	 * A column in direct buffers, gone when the column is collected
+	 */
+	public OffHeapColumn()
+	{
+		raf = null;
+		channel = null;
+		header = null;
+	}
+
+	/**
+	 * A column mapped from a file, created if it does not exist
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public OffHeapColumn(File file)
+		throws IOException
+	{
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		long stored = header.getLong(0);
+		if (stored < 0 || stored > Integer.MAX_VALUE || HEADER_SIZE + stored*8 > channel.size()) {
+			throw new IOException("Not a column file: " + file);
+		}
+		setSize((int) stored);
+	}
+
+	public double get(int index)
+	{
+		return segments[index >>> SEGMENT_BITS].get(index & SEGMENT_MASK);
+	}
+
+	public void set(int index, double value)
+	{
+		segments[index >>> SEGMENT_BITS].put(index & SEGMENT_MASK, value);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void setSize(int newSize)
+	{
+		if (newSize > firstCapacity && firstCapacity < SEGMENT_SIZE) {
+			growFirstSegment(newSize);
+		}
+		int needed = (int) (((long) newSize + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+		while (numSegments < needed) {
+			addSegment();
+		}
+		size = newSize;
+		if (header != null) {
+			header.putLong(0, newSize);
+		}
+	}
+
+	public void put(int index, DoubleBuffer src)
+	{
+		// a segment at a time
+		DoubleBuffer values = src.duplicate();
+		while (values.hasRemaining())
+		{
+			int offset = index & SEGMENT_MASK;
+			int n = Math.min(values.remaining(), SEGMENT_SIZE - offset);
+			DoubleBuffer segment = segments[index >>> SEGMENT_BITS].duplicate();
+			segment.position(offset);
+			DoubleBuffer chunk = values.slice();
+			chunk.limit(n);
+			segment.put(chunk);
+			values.position(values.position() + n);
+			index += n;
+		}
+	}
+
+	/**
+	 * Double the first segment (from MIN_SEGMENT_SIZE) until it holds the size or is
+	 * full size
+	 */
+	private void growFirstSegment(int newSize)
+	{
+		int capacity = Math.max(MIN_SEGMENT_SIZE, firstCapacity);
+		while (capacity < newSize && capacity < SEGMENT_SIZE) {
+			capacity *= 2;
+		}
+		if (segments.length == 0) {
+			segments = new DoubleBuffer[4];
+			mapped = new MappedByteBuffer[4];
+		}
+		ByteBuffer bytes;
+		if (channel == null) {
+			bytes = ByteBuffer.allocateDirect(capacity * 8);
+			if (numSegments > 0) {
+				DoubleBuffer old = segments[0].duplicate();
+				old.clear();
+				bytes.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(old);
+			}
+		} else {
+			try {
+				MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, (long) capacity * 8);
+				mapped[0] = map;
+				bytes = map;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		segments[0] = bytes.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		numSegments = Math.max(numSegments, 1);
+		firstCapacity = capacity;
+	}
+
+	private void addSegment()
+	{
+		if (numSegments == segments.length) {
+			segments = Arrays.copyOf(segments, Math.max(4, numSegments*2));
+			mapped = Arrays.copyOf(mapped, segments.length);
+		}
+		ByteBuffer bytes;
+		if (channel == null) {
+			bytes = ByteBuffer.allocateDirect(SEGMENT_SIZE * 8);
+		} else {
+			try {
+				long position = HEADER_SIZE + (long) numSegments * SEGMENT_SIZE * 8;
+				MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) SEGMENT_SIZE * 8);
+				mapped[numSegments] = map;
+				bytes = map;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		segments[numSegments++] = bytes.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+	}
+
+	public void force()
+	{
+		if (header == null) {
+			return;
+		}
+		for (int i = 0; i < numSegments; i++) {
+			mapped[i].force();
+		}
+		header.force();
+	}
+
+	/**
+	 * Force and release the file and drop the segments (direct memory is freed when
+	 * they are collected), the column must not be used afterwards
+	 * @throws IOException
+	 */
+	public void close()
+		throws IOException
+	{
+		try {
+			if (raf != null) {
+				force();
+				raf.close();
+			}
+		} finally {
+			segments = new DoubleBuffer[0];
+			mapped = new MappedByteBuffer[0];
+			numSegments = 0;
+			firstCapacity = 0;
+		}
+	}
+}
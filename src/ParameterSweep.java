@@ -0,0 +1,262 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Hyperparameter sweep for the Glicko system.
+ * <br />
+ * Trains many models concurrently over one parsed, read-only {@link GameStore}: the
+ * last months are held out (optionally as several rolling-origin folds, see
+ * {@link Evaluation}), each model is trained on the months before them and scored on
+ * the held out months, and the models are ranked by error (lowest first).
+ * <br />
+ * A point in the sweep is {defaultRating, defaultRD, minRD, defaultRDDecayTimePeriod, avgRD}.
+ * <br />
+ * Usage: <pre>java ParameterSweep training_data.csv [holdout_months] [samples] [folds]</pre>
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class ParameterSweep
+{
+	public final static int DEFAULT_RATING = 0;
+	public final static int DEFAULT_RD = 1;
+	public final static int MIN_RD = 2;
+	public final static int DECAY_TIME_PERIOD = 3;
+	public final static int AVG_RD = 4;
+
+	// {min, max} of each parameter for random sampling
+	public final static double [][] DEFAULT_RANGES = {
+		{1200, 1800}, // defaultRating
+		{150, 500}, // defaultRD
+		{10, 80}, // minRD
+		{5, 100}, // defaultRDDecayTimePeriod
+		{30, 300}, // avgRD
+	};
+
+	private final Evaluation evaluation;
+	private final boolean updateAfterEveryGame;
+
+	/**
+	 * @param aGames - shared by all models, never modified
+	 * @param holdoutMonths - number of final months to score on
+	 * @param aUpdateAfterEveryGame - per-game (true) or batch (false) models
+	 */
+	public ParameterSweep(GameStore aGames, int holdoutMonths, boolean aUpdateAfterEveryGame)
+	{
+		this(aGames, 1, holdoutMonths, aUpdateAfterEveryGame);
+	}
+
+	/**
+	 * @param aGames - shared by all models, never modified
+	 * @param folds - number of rolling-origin test windows
+	 * @param horizon - months in each test window
+	 * @param aUpdateAfterEveryGame - per-game (true) or batch (false) models
+	 */
+	public ParameterSweep(GameStore aGames, int folds, int horizon, boolean aUpdateAfterEveryGame)
+	{
+		evaluation = new Evaluation(aGames, folds, horizon);
+		updateAfterEveryGame = aUpdateAfterEveryGame;
+	}
+
+	/**
+	 * A scored point
+	 */
+	public static class Result implements Comparable<Result>
+	{
+		public final double [] point;
+		public final double error;
+
+		public Result(double [] aPoint, double aError)
+		{
+			point = aPoint;
+			error = aError;
+		}
+
+		public int compareTo(Result o)
+		{
+			return Double.compare(error, o.error);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "error=" + error +
+				" [defaultRating=" + point[DEFAULT_RATING] +
+				", defaultRD=" + point[DEFAULT_RD] +
+				", minRD=" + point[MIN_RD] +
+				", defaultRDDecayTimePeriod=" + point[DECAY_TIME_PERIOD] +
+				", avgRD=" + point[AVG_RD] + "]";
+		}
+	}
+
+	/**
+	 * @param point
+	 * @return a model for the point
+	 */
+	public GlickoSystemStandalone newModel(double [] point)
+	{
+		GlickoSystemStandalone model = GlickoSystemStandalone.getInstance(
+				updateAfterEveryGame,
+				false,
+				point[DEFAULT_RATING],
+				point[DEFAULT_RD],
+				point[MIN_RD],
+				point[DECAY_TIME_PERIOD],
+				point[AVG_RD]);
+		model.setDebug(false);
+		return model;
+	}
+
+	/**
+	 * Train models for the point and score them on the held out months
+	 *
+	 * @param point
+	 * @return mean competition error over the folds
+	 */
+	public Result evaluate(final double [] point)
+	{
+		Evaluation.Score [] scores = evaluation.evaluate(new Evaluation.ModelFactory() {
+			public RatingSystem newModel() {
+				return ParameterSweep.this.newModel(point);
+			}
+		});
+		return new Result(point, Evaluation.meanRmse(scores));
+	}
+
+	/**
+	 * Evaluate all points concurrently
+	 *
+	 * @param points
+	 * @param threads
+	 * @return results, best (lowest error) first
+	 * @throws Exception
+	 */
+	public List<Result> run(List<double[]> points, int threads)
+		throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Result>> futures = new ArrayList<Future<Result>>();
+			for (final double [] point : points) {
+				futures.add(executor.submit(new Callable<Result>() {
+					public Result call() {
+						return evaluate(point);
+					}
+				}));
+			}
+			List<Result> results = new ArrayList<Result>();
+			for (Future<Result> future : futures) {
+				results.add(future.get());
+			}
+			Collections.sort(results);
+			return results;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Full grid over the given values of each parameter
+	 *
+	 * @param defaultRatings
+	 * @param defaultRDs
+	 * @param minRDs
+	 * @param decayTimePeriods
+	 * @param avgRDs
+	 * @return valid points only (avgRD and minRD below defaultRD)
+	 */
+	public static List<double[]> grid(
+			double [] defaultRatings,
+			double [] defaultRDs,
+			double [] minRDs,
+			double [] decayTimePeriods,
+			double [] avgRDs)
+	{
+		List<double[]> points = new ArrayList<double[]>();
+		for (double rating : defaultRatings)
+			for (double rd : defaultRDs)
+				for (double minRD : minRDs)
+					for (double decay : decayTimePeriods)
+						for (double avgRD : avgRDs)
+						{
+							double [] point = {rating, rd, minRD, decay, avgRD};
+							if (isValid(point)) {
+								points.add(point);
+							}
+						}
+		return points;
+	}
+
+	/**
+	 * Uniform random points within the ranges
+	 *
+	 * @param numPoints
+	 * @param ranges - {min, max} for each parameter
+	 * @param seed
+	 * @return valid points only (avgRD and minRD below defaultRD)
+	 */
+	public static List<double[]> randomSample(int numPoints, double [][] ranges, long seed)
+	{
+		Random r = new Random(seed);
+		List<double[]> points = new ArrayList<double[]>();
+		while (points.size() < numPoints)
+		{
+			double [] point = new double[ranges.length];
+			for (int i = 0; i < point.length; i++) {
+				point[i] = ranges[i][0] + r.nextDouble() * (ranges[i][1]-ranges[i][0]);
+			}
+			if (isValid(point)) {
+				points.add(point);
+			}
+		}
+		return points;
+	}
+
+	/**
+	 * c is only defined for avgRD below defaultRD
+	 * @param point
+	 * @return
+	 */
+	public static boolean isValid(double [] point)
+	{
+		return point[AVG_RD] < point[DEFAULT_RD] && point[MIN_RD] < point[DEFAULT_RD];
+	}
+
+	/**
+	 * Usage: java ParameterSweep training_data.csv [holdout_months] [samples] [folds]
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		// most basic validation
+		if (args.length < 1) {
+			System.out.println("Usage: java ParameterSweep training_data.csv [holdout_months] [samples] [folds]");
+			System.exit(1);
+		}
+		int holdout = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+		int samples = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+		int folds = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+
+		// parse once, shared by all models
+		GameStore games = GlickoSystemStandalone.loadDataset(new File(args[0]));
+		for (boolean perGame : new boolean[]{false, true})
+		{
+			ParameterSweep sweep = new ParameterSweep(games, folds, holdout, perGame);
+			long start = System.currentTimeMillis();
+			List<Result> results = sweep.run(randomSample(samples, DEFAULT_RANGES, 1), Runtime.getRuntime().availableProcessors());
+			System.out.println((perGame ? "Per-game" : "Batch") + " sweep of " + samples + " points in " + (System.currentTimeMillis()-start) + " ms, best:");
+			for (int i = 0; i < Math.min(10, results.size()); i++) {
+				System.out.println((i+1) + ": " + results.get(i));
+			}
+		}
+	}
+}
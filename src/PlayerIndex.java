@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+ * Maps player ids to contiguous indexes (0, 1, 2, ...) in the order they are first seen.
+ * <br />
+ * Open addressing over primitive arrays, no boxing. Stores that share an index
+ * (e.g. training and test) can be rated against the same dense rating table.
+ * <br />
+ * One writer at a time. A lookup racing with the writer (e.g. an optimistic read
+ * that is validated afterwards) may return a wrong index but always terminates:
+ * a grown table is filled before it is published and probes are bounded.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class PlayerIndex
+{
+	private final static int EMPTY = -1;
+
+	private int size;
+	private int [] ids; // index -> id
+	private int [] slots; // hash slot -> index, EMPTY if free
+	private int mask;
+
+	public PlayerIndex()
+	{
+		this(1024);
+	}
+
+	public PlayerIndex(int expectedPlayers)
+	{
+		int capacity = Integer.highestOneBit(Math.max(expectedPlayers, 16) * 2 - 1) * 2;
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		mask = capacity - 1;
+		ids = new int[Math.max(expectedPlayers, 16)];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @param index
+	 * @return the player id for a dense index
+	 */
+	public int getId(int index)
+	{
+		return ids[index];
+	}
+
+	/**
+	 * @param id
+	 * @return dense index of the player, or -1 if the player has not been seen
+	 */
+	public int getIndex(int id)
+	{
+		// one table and its own mask, in case of a racing rehash
+		int [] table = slots;
+		int [] known = ids;
+		int tableMask = table.length - 1;
+		int slot = hash(id) & tableMask;
+		for (int probes = 0; probes < table.length && table[slot] != EMPTY; probes++) {
+			int index = table[slot];
+			if (index < known.length && known[index] == id) {
+				return index;
+			}
+			slot = (slot + 1) & tableMask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param id
+	 * @return dense index of the player, assigning the next index if the player is new
+	 */
+	public int add(int id)
+	{
+		int slot = hash(id) & mask;
+		while (slots[slot] != EMPTY) {
+			if (ids[slots[slot]] == id) {
+				return slots[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		// new player
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, size + (size >> 1));
+		}
+		ids[size] = id;
+		slots[slot] = size;
+		if (++size * 2 > slots.length) {
+			rehash();
+		}
+		return size - 1;
+	}
+
+	protected void rehash()
+	{
+		// build the new table before publishing it
+		int [] table = new int[slots.length * 2];
+		Arrays.fill(table, EMPTY);
+		int tableMask = table.length - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = hash(ids[i]) & tableMask;
+			while (table[slot] != EMPTY) {
+				slot = (slot + 1) & tableMask;
+			}
+			table[slot] = i;
+		}
+		mask = tableMask;
+		slots = table;
+	}
+
+	private static int hash(int id)
+	{
+		// spread sequential ids
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
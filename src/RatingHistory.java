@@ -0,0 +1,537 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Append only log of the rating and rd of each player after every period they
+ * played, for charts and audits over many players without an object per entry.
+ * <br />
+ * Columnar over primitive arrays, entries are (month, rating, rd) by dense player
+ * index. Sealed entries are grouped by player in month order (offsets as in
+ * {@link GameStore}), the month is a 16 bit delta from the player's first month and
+ * the rating and rd are floats, 10 bytes an entry plus 12 a player. New entries go
+ * to a tail chained newest first per player, the tail is merged into the sealed
+ * columns once it is as large as them (amortized O(1) an entry).
+ * <br />
+ * Rating as of a month is a binary search of the player's sealed entries after a
+ * walk of their tail entries (only the months since the last merge), a range of
+ * months is a scan in month order.
+ * <br />
+ * Months must not decrease for a player, a second entry in the same month replaces
+ * the first (per-game updates record the state at the end of the period).
+ * Not thread safe.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class RatingHistory
+{
+	public final static int MAGIC = 0x52484953; // "RHIS"
+	public final static int VERSION = 1;
+	public final static int HEADER_SIZE = 4*4;
+	public final static int NONE = -1;
+	// smallest tail merged into the sealed columns
+	private final static int MIN_TAIL = 1 << 16;
+
+	// players [0, numPlayers) have a first month and a tail head
+	private int numPlayers;
+	private int [] first = new int[0];
+	private int [] head = new int[0];
+
+	// sealed: entries of player p are [offset[p], offset[p+1]), p < numSealedPlayers
+	private int numSealedPlayers;
+	private int [] offset = {0};
+	private char [] month = new char[0];
+	private float [] rating = new float[0];
+	private float [] rd = new float[0];
+
+	// tail: in the order added
+	private int tailSize;
+	private int [] tailPlayer = new int[0];
+	private int [] tailMonth = new int[0];
+	private float [] tailRating = new float[0];
+	private float [] tailRd = new float[0];
+	private int [] tailPrev = new int[0];
+
+	/**
+	 * Receives the entries of a range scan in month order
+	 */
+	public interface Visitor
+	{
+		void entry(int month, double rating, double rd);
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	public int size()
+	{
+		return sealedSize() + tailSize;
+	}
+
+	/**
+	 * @return players covered, one more than the largest index added
+	 */
+	public int getNumPlayers()
+	{
+		return numPlayers;
+	}
+
+	private int sealedSize()
+	{
+		return offset[numSealedPlayers];
+	}
+
+	private int sealedStart(int player)
+	{
+		return (player < numSealedPlayers) ? offset[player] : 0;
+	}
+
+	private int sealedEnd(int player)
+	{
+		return (player < numSealedPlayers) ? offset[player+1] : 0;
+	}
+
+	private void ensurePlayers(int n)
+	{
+		if (n <= numPlayers) {
+			return;
+		}
+		if (n > first.length) {
+			int capacity = Math.max(n, first.length + (first.length >> 1));
+			first = Arrays.copyOf(first, capacity);
+			head = Arrays.copyOf(head, capacity);
+		}
+		Arrays.fill(head, numPlayers, n, NONE);
+		numPlayers = n;
+	}
+
+	/**
+	 * Record the state of a player after a period
+	 *
+	 * @param player - dense index
+	 * @param aMonth - month value, not before the last one recorded for the player
+	 * @param aRating
+	 * @param aRd
+	 */
+	public void add(int player, int aMonth, double aRating, double aRd)
+	{
+		ensurePlayers(player+1);
+		int last = getLastEntry(player);
+		if (last == NONE) {
+			first[player] = aMonth;
+		} else {
+			int lastMonth = getMonth(last);
+			if (aMonth == lastMonth) {
+				replace(last, aRating, aRd);
+				return;
+			}
+			if (aMonth < lastMonth) {
+				throw new IllegalArgumentException("Month " + aMonth + " is before month " + lastMonth +
+						" already recorded for player " + player);
+			}
+		}
+		if (aMonth - first[player] > Character.MAX_VALUE) {
+			throw new IllegalArgumentException("Month " + aMonth + " is too far after the first month " +
+					first[player] + " of player " + player);
+		}
+
+		if (tailSize == tailPlayer.length) {
+			int capacity = Math.max(16, tailSize + (tailSize >> 1));
+			tailPlayer = Arrays.copyOf(tailPlayer, capacity);
+			tailMonth = Arrays.copyOf(tailMonth, capacity);
+			tailRating = Arrays.copyOf(tailRating, capacity);
+			tailRd = Arrays.copyOf(tailRd, capacity);
+			tailPrev = Arrays.copyOf(tailPrev, capacity);
+		}
+		tailPlayer[tailSize] = player;
+		tailMonth[tailSize] = aMonth;
+		tailRating[tailSize] = (float) aRating;
+		tailRd[tailSize] = (float) aRd;
+		tailPrev[tailSize] = head[player];
+		head[player] = tailSize;
+		tailSize++;
+
+		if (tailSize >= Math.max(MIN_TAIL, sealedSize())) {
+			seal();
+		}
+	}
+
+	private void replace(int entry, double aRating, double aRd)
+	{
+		int s = sealedSize();
+		if (entry < s) {
+			rating[entry] = (float) aRating;
+			rd[entry] = (float) aRd;
+		} else {
+			tailRating[entry-s] = (float) aRating;
+			tailRd[entry-s] = (float) aRd;
+		}
+	}
+
+	/**
+	 * Merge the tail into the sealed columns
+	 */
+	public void seal()
+	{
+		if (tailSize == 0) {
+			return;
+		}
+		int n = numPlayers;
+		int [] newOffset = new int[n+1];
+		for (int p = 0; p < n; p++) {
+			newOffset[p+1] = sealedEnd(p) - sealedStart(p);
+		}
+		for (int t = 0; t < tailSize; t++) {
+			newOffset[tailPlayer[t]+1]++;
+		}
+		for (int p = 0; p < n; p++) {
+			newOffset[p+1] += newOffset[p];
+		}
+
+		int total = newOffset[n];
+		char [] newMonth = new char[total];
+		float [] newRating = new float[total];
+		float [] newRd = new float[total];
+		int [] next = new int[n];
+		for (int p = 0; p < n; p++)
+		{
+			int start = sealedStart(p);
+			int count = sealedEnd(p) - start;
+			System.arraycopy(month, start, newMonth, newOffset[p], count);
+			System.arraycopy(rating, start, newRating, newOffset[p], count);
+			System.arraycopy(rd, start, newRd, newOffset[p], count);
+			next[p] = newOffset[p] + count;
+		}
+		// the tail of a player is already in month order
+		for (int t = 0; t < tailSize; t++)
+		{
+			int p = tailPlayer[t];
+			int i = next[p]++;
+			newMonth[i] = (char) (tailMonth[t] - first[p]);
+			newRating[i] = tailRating[t];
+			newRd[i] = tailRd[t];
+			head[p] = NONE;
+		}
+
+		offset = newOffset;
+		month = newMonth;
+		rating = newRating;
+		rd = newRd;
+		numSealedPlayers = n;
+		tailSize = 0;
+	}
+
+	/**
+	 * @param player - dense index
+	 * @return number of entries of the player
+	 */
+	public int count(int player)
+	{
+		if (player >= numPlayers) {
+			return 0;
+		}
+		int n = sealedEnd(player) - sealedStart(player);
+		for (int t = head[player]; t != NONE; t = tailPrev[t]) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @param player - dense index
+	 * @return month of the first entry of the player, NONE if they have none
+	 */
+	public int getFirstMonth(int player)
+	{
+		return (getLastEntry(player) == NONE) ? NONE : first[player];
+	}
+
+	/**
+	 * @param player - dense index
+	 * @return the latest entry of the player, NONE if they have none
+	 */
+	public int getLastEntry(int player)
+	{
+		if (player >= numPlayers) {
+			return NONE;
+		}
+		if (head[player] != NONE) {
+			return sealedSize() + head[player];
+		}
+		int end = sealedEnd(player);
+		return (end > sealedStart(player)) ? end-1 : NONE;
+	}
+
+	/**
+	 * The entry in force in a month: the latest at or before it
+	 *
+	 * @param player - dense index
+	 * @param aMonth - month value
+	 * @return entry, NONE if the player has not played by the month
+	 */
+	public int find(int player, int aMonth)
+	{
+		if (player >= numPlayers) {
+			return NONE;
+		}
+		for (int t = head[player]; t != NONE; t = tailPrev[t]) {
+			if (tailMonth[t] <= aMonth) {
+				return sealedSize() + t;
+			}
+		}
+		int i = upperBound(player, aMonth);
+		return (i > sealedStart(player)) ? i-1 : NONE;
+	}
+
+	/**
+	 * @return first sealed entry of the player after the month
+	 */
+	private int upperBound(int player, int aMonth)
+	{
+		int low = sealedStart(player);
+		int high = sealedEnd(player);
+		long key = (long) aMonth - first[player];
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (month[middle] <= key) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @param entry - from {@link #find(int, int)} or {@link #getLastEntry(int)}
+	 * @return month value of the entry
+	 */
+	public int getMonth(int entry)
+	{
+		int s = sealedSize();
+		if (entry >= s) {
+			return tailMonth[entry-s];
+		}
+		return first[playerOf(entry)] + month[entry];
+	}
+
+	public double getRating(int entry)
+	{
+		int s = sealedSize();
+		return (entry < s) ? rating[entry] : tailRating[entry-s];
+	}
+
+	public double getRd(int entry)
+	{
+		int s = sealedSize();
+		return (entry < s) ? rd[entry] : tailRd[entry-s];
+	}
+
+	/**
+	 * Player of a sealed entry, binary search of the offsets
+	 */
+	private int playerOf(int entry)
+	{
+		int low = 0;
+		int high = numSealedPlayers;
+		// last player starting at or before the entry with entries
+		while (high - low > 1)
+		{
+			int middle = (low + high) >>> 1;
+			if (offset[middle] <= entry) {
+				low = middle;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @param player - dense index
+	 * @param aMonth - month value
+	 * @return rating at the end of the last period played by the month, NaN if none
+	 */
+	public double getRatingAsOf(int player, int aMonth)
+	{
+		int entry = find(player, aMonth);
+		return (entry == NONE) ? Double.NaN : getRating(entry);
+	}
+
+	/**
+	 * Without the decay since the period, see {@link GlickoSystemStandalone#calculateCurrentRD(double, double, double)}
+	 *
+	 * @param player - dense index
+	 * @param aMonth - month value
+	 * @return rd at the end of the last period played by the month, NaN if none
+	 */
+	public double getRdAsOf(int player, int aMonth)
+	{
+		int entry = find(player, aMonth);
+		return (entry == NONE) ? Double.NaN : getRd(entry);
+	}
+
+	/**
+	 * Visit the entries of a player in a range of months, in month order
+	 *
+	 * @param player - dense index
+	 * @param fromMonth - inclusive
+	 * @param toMonth - inclusive
+	 * @param visitor
+	 * @return number of entries visited
+	 */
+	public int scan(int player, int fromMonth, int toMonth, Visitor visitor)
+	{
+		if (player >= numPlayers || fromMonth > toMonth) {
+			return 0;
+		}
+		int n = 0;
+		int end = sealedEnd(player);
+		int i = upperBound(player, fromMonth - 1);
+		for (; i < end && first[player] + month[i] <= toMonth; i++, n++) {
+			visitor.entry(first[player] + month[i], rating[i], rd[i]);
+		}
+
+		// tail entries are chained newest first
+		int numTail = 0;
+		for (int t = head[player]; t != NONE && tailMonth[t] >= fromMonth; t = tailPrev[t]) {
+			numTail++;
+		}
+		if (numTail == 0) {
+			return n;
+		}
+		int [] entries = new int[numTail];
+		int k = numTail;
+		for (int t = head[player]; k > 0; t = tailPrev[t]) {
+			entries[--k] = t;
+		}
+		for (int t : entries) {
+			if (tailMonth[t] > toMonth) {
+				break;
+			}
+			visitor.entry(tailMonth[t], tailRating[t], tailRd[t]);
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return bytes held by the columns
+	 */
+	public long getMemoryBytes()
+	{
+		return 4L * (first.length + head.length + offset.length) + 10L * month.length +
+				20L * tailPlayer.length;
+	}
+
+	/**
+	 * Seal and write the columns to a file
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file)
+		throws IOException
+	{
+		seal();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+			int n = numPlayers;
+			int size = sealedSize();
+			buf.putInt(MAGIC);
+			buf.putInt(VERSION);
+			buf.putInt(n);
+			buf.putInt(size);
+			for (int column = 0; column < 5; column++)
+			{
+				int length = (column == 0) ? n+1 : (column == 1) ? n : size;
+				for (int i = 0; i < length; i++)
+				{
+					if (buf.remaining() < 4) {
+						writeFully(channel, buf);
+					}
+					switch (column) {
+						case 0: buf.putInt(offset[i]); break;
+						case 1: buf.putInt(first[i]); break;
+						case 2: buf.putChar(month[i]); break;
+						case 3: buf.putFloat(rating[i]); break;
+						default: buf.putFloat(rd[i]); break;
+					}
+				}
+			}
+			writeFully(channel, buf);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf)
+		throws IOException
+	{
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	/**
+	 * Read a history written with {@link #write(File)}, the file is memory mapped and
+	 * copied in bulk
+	 *
+	 * @param file
+	 * @return history open for further entries
+	 * @throws IOException
+	 */
+	public static RatingHistory read(File file)
+		throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) {
+				throw new IOException("Not a rating history: " + file);
+			}
+			int version = buf.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported rating history version " + version + " in " + file);
+			}
+			int n = buf.getInt();
+			int size = buf.getInt();
+			if (buf.remaining() != 4L * (2*n + 1) + 10L * size) {
+				throw new IOException("Truncated rating history, expected " + size + " entries in " + file);
+			}
+
+			RatingHistory history = new RatingHistory();
+			history.ensurePlayers(n);
+			history.numSealedPlayers = n;
+			history.offset = new int[n+1];
+			history.month = new char[size];
+			history.rating = new float[size];
+			history.rd = new float[size];
+			buf.asIntBuffer().get(history.offset);
+			buf.position(buf.position() + 4*(n+1));
+			buf.asIntBuffer().get(history.first, 0, n);
+			buf.position(buf.position() + 4*n);
+			buf.asCharBuffer().get(history.month);
+			buf.position(buf.position() + 2*size);
+			buf.asFloatBuffer().get(history.rating);
+			buf.position(buf.position() + 4*size);
+			buf.asFloatBuffer().get(history.rd);
+			return history;
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,483 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server for predictions, ratings and streamed game results on top of
+ * a trained {@link GlickoSystemStandalone}.
+ * <br />
+ * GET /predict?white=ID&amp;black=ID - expected score for white<br />
+ * GET /rating?id=ID - rating and RD (as of the last month) of a player<br />
+ * POST /game?month=M&amp;white=ID&amp;black=ID&amp;score=S - queue a result (202), the
+ * parameters may also be sent form encoded in the body<br />
+ * GET /stats - games queued, applied and rejected, update rounds
+ * <br />
+ * Results are queued and applied by a single writer thread in rounds of up to
+ * MAX_BATCH games (whatever has queued up since the last round) with the per-game
+ * update path. Games for a month before the model's last month are refused (400), a
+ * game that still fails in the writer is logged and skipped. Each game is applied
+ * under the write lock of a StampedLock. Reads take an optimistic stamp and only fall
+ * back to the read lock if a game was applied while they ran, so they never see half
+ * of a game. The lock is taken per game rather than per round so a read waits for at
+ * most one game (~0.1us) instead of a whole round (up to MAX_BATCH games), the extra
+ * uncontended lock and unlock per game is small next to the update itself.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class RatingServer
+{
+	public final static int DEFAULT_PORT = 8080;
+	// most games applied in one round
+	public final static int MAX_BATCH = 1024;
+	// results waiting to be applied, submissions are refused (503) when full
+	public final static int QUEUE_CAPACITY = 1 << 16;
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	static {
+		// the jdk server writes headers and body separately, with Nagle on the body
+		// waits for the client's delayed ack (~40ms), read once when the server loads
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final GlickoSystemStandalone model;
+	private final StampedLock lock = new StampedLock();
+	private final BlockingQueue<Game> queue = new ArrayBlockingQueue<Game>(QUEUE_CAPACITY);
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private Thread writer;
+	private volatile boolean running;
+
+	// written by the writer thread only
+	private volatile long gamesApplied;
+	private volatile long gamesRejected;
+	private volatile long rounds;
+
+	/**
+	 * A submitted result
+	 */
+	protected static class Game
+	{
+		final int month;
+		final int whiteId;
+		final int blackId;
+		final double score;
+
+		Game(int aMonth, int aWhiteId, int aBlackId, double aScore)
+		{
+			month = aMonth;
+			whiteId = aWhiteId;
+			blackId = aBlackId;
+			score = aScore;
+		}
+	}
+
+	/**
+	 * @param aModel - trained model, must not be used elsewhere while the server runs
+	 */
+	public RatingServer(GlickoSystemStandalone aModel)
+	{
+		model = aModel;
+	}
+
+	/**
+	 * Start the writer and listen on a port
+	 *
+	 * @param port - 0 for any free port
+	 * @param threads - request handler threads
+	 * @throws IOException
+	 */
+	public void start(int port, int threads)
+		throws IOException
+	{
+		running = true;
+		writer = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "rating-writer");
+		writer.start();
+
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/predict", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handlePredict(exchange);
+			}
+		});
+		server.createContext("/rating", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleRating(exchange);
+			}
+		});
+		server.createContext("/game", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleGame(exchange);
+			}
+		});
+		server.createContext("/stats", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, "{\"queued\":" + queue.size() + ",\"applied\":" + gamesApplied + ",\"rejected\":" + gamesRejected + ",\"rounds\":" + rounds + "}");
+			}
+		});
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return the port listened on
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stop listening, apply the games still queued and write the ratings through to
+	 * storage
+	 *
+	 * @throws InterruptedException
+	 */
+	public void stop()
+		throws InterruptedException
+	{
+		server.stop(0);
+		executor.shutdown();
+		running = false;
+		writer.join();
+		model.force();
+	}
+
+	//
+	// embedded api, used by the handlers
+	//
+
+	/**
+	 * @param whiteId
+	 * @param blackId
+	 * @return expected score for white, unseen players are on the model's priors
+	 */
+	public double predict(int whiteId, int blackId)
+	{
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				double p = model.predictResultById(whiteId, blackId);
+				if (lock.validate(stamp)) {
+					return p;
+				}
+			} catch (RuntimeException e) {
+				// the index grew under us, anything else is real
+				if (lock.validate(stamp)) {
+					throw e;
+				}
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return model.predictResultById(whiteId, blackId);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @param id
+	 * @param out - receives {rating, RD as of the last month}
+	 * @return false if the player has no rating
+	 */
+	public boolean getRating(int id, double [] out)
+	{
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				boolean found = readRating(id, out);
+				if (lock.validate(stamp)) {
+					return found;
+				}
+			} catch (RuntimeException e) {
+				if (lock.validate(stamp)) {
+					throw e;
+				}
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return readRating(id, out);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private boolean readRating(int id, double [] out)
+	{
+		int player = model.getRatedIndex(id);
+		if (player < 0) {
+			return false;
+		}
+		out[0] = model.getRatingAsOf(player, model.getLastMonth());
+		out[1] = model.getRdAsOf(player, model.getLastMonth());
+		return true;
+	}
+
+	/**
+	 * Queue a result for the next update round
+	 *
+	 * @param month - not before the model's last month
+	 * @param whiteId
+	 * @param blackId
+	 * @param score - for white, 0, 0.5 or 1
+	 * @return false if the queue is full
+	 * @throws IllegalArgumentException for a bad game
+	 */
+	public boolean submit(int month, int whiteId, int blackId, double score)
+	{
+		if (whiteId == blackId || !(score >= 0.0 && score <= 1.0)) {
+			throw new IllegalArgumentException("Bad game: " + whiteId + " vs " + blackId + " score " + score);
+		}
+		// a game queued behind a later month is caught again by the writer
+		if (month < model.getLastMonth()) {
+			throw new IllegalArgumentException("Month " + month + " is before the last month " + model.getLastMonth());
+		}
+		return queue.offer(new Game(month, whiteId, blackId, score));
+	}
+
+	public long getGamesApplied()
+	{
+		return gamesApplied;
+	}
+
+	/**
+	 * @return games that passed submit but failed when applied
+	 */
+	public long getGamesRejected()
+	{
+		return gamesRejected;
+	}
+
+	public long getRounds()
+	{
+		return rounds;
+	}
+
+	/**
+	 * Single writer: take whatever has queued up (at least one game) and apply it as
+	 * one round, until stopped and drained
+	 */
+	protected void writeLoop()
+	{
+		List<Game> batch = new ArrayList<Game>(MAX_BATCH);
+		while (running || !queue.isEmpty())
+		{
+			try {
+				Game first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			queue.drainTo(batch, MAX_BATCH-1);
+
+			for (int i = 0; i < batch.size(); i++)
+			{
+				Game g = batch.get(i);
+				long stamp = lock.writeLock();
+				try {
+					model.updateForGameById(g.month, g.whiteId, g.blackId, g.score);
+					gamesApplied++;
+				} catch (RuntimeException e) {
+					// one bad game must not stop the writer
+					gamesRejected++;
+					System.err.println("Rejected game " + g.whiteId + " vs " + g.blackId + " in month " + g.month + ": " + e);
+				} finally {
+					lock.unlockWrite(stamp);
+				}
+			}
+			rounds++;
+			batch.clear();
+		}
+	}
+
+	//
+	// http
+	//
+
+	protected void handlePredict(HttpExchange exchange)
+		throws IOException
+	{
+		String query = exchange.getRequestURI().getRawQuery();
+		try {
+			int white = intParam(query, "white");
+			int black = intParam(query, "black");
+			respond(exchange, 200, "{\"white\":" + white + ",\"black\":" + black + ",\"expected\":" + predict(white, black) + "}");
+		} catch (IllegalArgumentException e) {
+			respond(exchange, 400, error(e));
+		}
+	}
+
+	protected void handleRating(HttpExchange exchange)
+		throws IOException
+	{
+		String query = exchange.getRequestURI().getRawQuery();
+		try {
+			int id = intParam(query, "id");
+			double [] out = new double[2];
+			if (getRating(id, out)) {
+				respond(exchange, 200, "{\"id\":" + id + ",\"rating\":" + out[0] + ",\"rd\":" + out[1] + "}");
+			} else {
+				respond(exchange, 404, "{\"error\":\"no rating for player " + id + "\"}");
+			}
+		} catch (IllegalArgumentException e) {
+			respond(exchange, 400, error(e));
+		}
+	}
+
+	protected void handleGame(HttpExchange exchange)
+		throws IOException
+	{
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			respond(exchange, 405, "{\"error\":\"use POST\"}");
+			return;
+		}
+		String query = exchange.getRequestURI().getRawQuery();
+		String body = readBody(exchange);
+		if (body.length() > 0) {
+			query = (query == null) ? body : query + "&" + body;
+		}
+		try {
+			int month = intParam(query, "month");
+			int white = intParam(query, "white");
+			int black = intParam(query, "black");
+			double score = Double.parseDouble(param(query, "score"));
+			if (submit(month, white, black, score)) {
+				respond(exchange, 202, "{\"queued\":" + queue.size() + "}");
+			} else {
+				respond(exchange, 503, "{\"error\":\"queue full\"}");
+			}
+		} catch (IllegalArgumentException e) {
+			respond(exchange, 400, error(e));
+		}
+	}
+
+	protected static String readBody(HttpExchange exchange)
+		throws IOException
+	{
+		InputStream in = exchange.getRequestBody();
+		try {
+			byte [] buf = new byte[256];
+			int n = 0;
+			for (int r; (r = in.read(buf, n, buf.length-n)) > 0; ) {
+				n += r;
+				if (n == buf.length) {
+					throw new IOException("Request body too large");
+				}
+			}
+			return new String(buf, 0, n, UTF8).trim();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param query - name=value pairs separated by &amp; (numbers only, nothing is decoded)
+	 * @param name
+	 * @return the value
+	 * @throws IllegalArgumentException if missing
+	 */
+	protected static String param(String query, String name)
+	{
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq == name.length() && pair.startsWith(name)) {
+					return pair.substring(eq+1);
+				}
+			}
+		}
+		throw new IllegalArgumentException("Missing parameter: " + name);
+	}
+
+	protected static int intParam(String query, String name)
+	{
+		// NumberFormatException is an IllegalArgumentException
+		return Integer.parseInt(param(query, name));
+	}
+
+	protected static String error(Exception e)
+	{
+		return "{\"error\":\"" + String.valueOf(e.getMessage()).replace("\"", "'") + "\"}";
+	}
+
+	protected static void respond(HttpExchange exchange, int status, String json)
+		throws IOException
+	{
+		byte [] bytes = json.getBytes(UTF8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Usage: RatingServer training_data.csv [port] [threads]
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 1) {
+			System.out.println("Usage: java RatingServer training_data.csv [port] [threads]");
+			System.exit(1);
+		}
+		int port = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) : 2*Runtime.getRuntime().availableProcessors();
+
+		// streamed results are applied per game
+		GameStore training = GlickoSystemStandalone.loadDataset(new File(args[0]));
+		GlickoSystemStandalone g = GlickoSystemStandalone.getInstanceBatchAndNoUpdateDuringTest();
+		g.setPool(new ForkJoinPool());
+		g.setDebug(false);
+		g.trainModel(training);
+
+		final RatingServer rs = new RatingServer(g);
+		rs.start(port, threads);
+		System.out.println("Model: " + g);
+		System.out.println("Listening on http://localhost:" + rs.getPort() + "/ (predict, rating, game, stats)");
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				try {
+					rs.stop();
+				} catch (InterruptedException e) {
+					// exiting anyway
+				}
+			}
+		});
+	}
+}
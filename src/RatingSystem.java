@@ -0,0 +1,107 @@
+/**
+ * A chess rating system driven one month (rating period) at a time.
+ * <br />
+ * Implementations keep their own per-player state indexed by the dense player
+ * indexes of a {@link PlayerIndex}, every store given to a system must share
+ * the index passed to {@link #preparePlayers(PlayerIndex)}.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public interface RatingSystem
+{
+	/**
+	 * Make room for all players in the index, new players start on the system's prior
+	 * @param players
+	 */
+	void preparePlayers(PlayerIndex players);
+
+	/**
+	 * Process the games of one month
+	 *
+	 * @param records
+	 * @param monthIndex
+	 * @param isTest - update with the expected rather than the recorded outcomes
+	 */
+	void updateMonth(GameStore records, int monthIndex, boolean isTest);
+
+	/**
+	 * @param white - dense index of the white player
+	 * @param black - dense index of the black player
+	 * @return expected score for white
+	 */
+	double predictResult(int white, int black);
+
+	default void trainModel(GameStore trainingSet)
+	{
+		trainModel(trainingSet, 0, trainingSet.numMonths());
+	}
+
+	/**
+	 * Train on a range of the months in a store, the store is only read
+	 *
+	 * @param trainingSet
+	 * @param fromMonth - first month index (inclusive)
+	 * @param toMonth - last month index (exclusive)
+	 */
+	default void trainModel(GameStore trainingSet, int fromMonth, int toMonth)
+	{
+		// prepare all users
+		preparePlayers(trainingSet.getPlayerIndex());
+
+		// process months
+		for (int m = fromMonth; m < toMonth; m++) {
+			updateMonth(trainingSet, m, false);
+		}
+	}
+
+	/**
+	 * Rolling forecast over games with known outcomes: each month is scored with the
+	 * ratings from the months before it and then used to update the ratings
+	 *
+	 * @param records
+	 * @param fromMonth - first month index (inclusive)
+	 * @param toMonth - last month index (exclusive)
+	 * @return predictions indexed by game, only the months in the range are filled
+	 */
+	default double [] rollingForecast(GameStore records, int fromMonth, int toMonth)
+	{
+		double [] predictions = new double[records.size()];
+		preparePlayers(records.getPlayerIndex());
+		predictAndUpdate(records, fromMonth, toMonth, false, predictions);
+		return predictions;
+	}
+
+	/**
+	 * Single pass over month sorted games, predict a month with the current ratings
+	 * then apply the updates for the month
+	 *
+	 * @param records
+	 * @param fromMonth - first month index (inclusive)
+	 * @param toMonth - last month index (exclusive)
+	 * @param isTest - update with the expected rather than the recorded outcomes
+	 * @param predictions - indexed by game
+	 */
+	default void predictAndUpdate(GameStore records, int fromMonth, int toMonth, boolean isTest, double [] predictions)
+	{
+		for (int m = fromMonth; m < toMonth; m++) {
+			predictMonth(records, m, predictions);
+			updateMonth(records, m, isTest);
+		}
+	}
+
+	/**
+	 * Score the games of one month with the current ratings
+	 *
+	 * @param records
+	 * @param monthIndex
+	 * @param predictions - indexed by game
+	 */
+	default void predictMonth(GameStore records, int monthIndex, double [] predictions)
+	{
+		for (int i = records.monthStart(monthIndex); i < records.monthEnd(monthIndex); i++) {
+			predictions[i] = predictResult(records.getWhite(i), records.getBlack(i));
+		}
+	}
+}
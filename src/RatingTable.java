@@ -0,0 +1,387 @@
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+
+/**
+ * Dense rating state for all players, indexed by {@link PlayerIndex} position.
+ * <br />
+ * Struct of arrays: rating, rd, the pending (tmp) rating and rd of the current period,
+ * and the month each player last played (NaN if never). New players start on the
+ * default rating and rd. The columns are on the heap unless another
+ * {@link ColumnStorage} is given, a table over persistent storage reopens with the
+ * players it had.
+ * <br />
+ * Optional summary statistics of the ratings and rds (see {@link #enableStats()})
+ * and an optional {@link Leaderboard} are kept up to date as players are changed,
+ * an optional {@link RatingHistory} records each period applied. None are built
+ * unless asked for, so updates only touch the columns.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class RatingTable
+{
+	private final double defaultRating;
+	private final double defaultRD;
+
+	private int size;
+	private final DoubleColumn rating;
+	private final DoubleColumn rd;
+	private final DoubleColumn tmpRating;
+	private final DoubleColumn tmpRd;
+	private final DoubleColumn monthLastPlayed;
+
+	private RunningStats ratingStats = null;
+	private RunningStats rdStats = null;
+	private Leaderboard leaderboard = null;
+	private RatingHistory history = null;
+	// last month played by anyone when the history was enabled, earlier periods are not all recorded
+	private double historyStart;
+
+	public RatingTable(double aDefaultRating, double aDefaultRD)
+	{
+		this(aDefaultRating, aDefaultRD, ColumnStorage.HEAP);
+	}
+
+	/**
+	 * @param aDefaultRating
+	 * @param aDefaultRD
+	 * @param storage - where the columns live, players already in persistent storage are restored
+	 * 	without reading their rows
+	 */
+	public RatingTable(double aDefaultRating, double aDefaultRD, ColumnStorage storage)
+	{
+		defaultRating = aDefaultRating;
+		defaultRD = aDefaultRD;
+		rating = storage.column("rating");
+		rd = storage.column("rd");
+		tmpRating = storage.column("tmpRating");
+		tmpRd = storage.column("tmpRd");
+		monthLastPlayed = storage.column("monthLastPlayed");
+
+		// restore, all columns are written together so use the shortest
+		size = Math.min(Math.min(rating.size(), rd.size()), monthLastPlayed.size());
+		tmpRating.setSize(size);
+		tmpRd.setSize(size);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Make sure players [0, numPlayers) exist, new players get the default rating and rd
+	 * @param numPlayers
+	 */
+	public void ensureSize(int numPlayers)
+	{
+		if (numPlayers <= size) {
+			return;
+		}
+		tmpRating.setSize(numPlayers);
+		tmpRd.setSize(numPlayers);
+		rating.setSize(numPlayers);
+		rd.setSize(numPlayers);
+		monthLastPlayed.setSize(numPlayers);
+		for (int i = size; i < numPlayers; i++) {
+			rating.set(i, defaultRating);
+			rd.set(i, defaultRD);
+			monthLastPlayed.set(i, Double.NaN);
+		}
+		if (ratingStats != null) {
+			ratingStats.grow(numPlayers, defaultRating);
+			rdStats.grow(numPlayers, defaultRD);
+		}
+		if (leaderboard != null) {
+			leaderboard.grow(numPlayers, defaultRating);
+		}
+		size = numPlayers;
+	}
+
+	/**
+	 * Start maintaining the summary statistics of the ratings and rds, built from the
+	 * current columns (O(n)) and then updated with each change (O(log n))
+	 */
+	public void enableStats()
+	{
+		if (ratingStats == null)
+		{
+			ratingStats = new RunningStats(defaultRating);
+			rdStats = new RunningStats(defaultRD);
+			ratingStats.load(rating, size);
+			rdStats.load(rd, size);
+		}
+	}
+
+	/**
+	 * Start maintaining players in rating order, built from the current ratings
+	 * (O(n log n)) and then updated with each change (O(log n))
+	 *
+	 * @return the leaderboard
+	 */
+	public Leaderboard enableLeaderboard()
+	{
+		if (leaderboard == null)
+		{
+			leaderboard = new Leaderboard();
+			leaderboard.grow(size, defaultRating);
+			for (int i = 0; i < size; i++) {
+				leaderboard.set(i, rating.get(i));
+			}
+		}
+		return leaderboard;
+	}
+
+	/**
+	 * @return the leaderboard, null if not enabled
+	 */
+	public Leaderboard getLeaderboard()
+	{
+		return leaderboard;
+	}
+
+	/**
+	 * Start recording the rating and rd of each period applied, the players who have
+	 * played start from their current state in the month they last played
+	 *
+	 * @return the history
+	 */
+	public RatingHistory enableHistory()
+	{
+		if (history == null)
+		{
+			history = new RatingHistory();
+			historyStart = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < size; i++) {
+				double last = monthLastPlayed.get(i);
+				if (!Double.isNaN(last)) {
+					history.add(i, (int) last, rating.get(i), rd.get(i));
+					historyStart = Math.max(historyStart, last);
+				}
+			}
+		}
+		return history;
+	}
+
+	/**
+	 * The history entry in force for a player in a month, for months before the
+	 * player's last game
+	 *
+	 * @param player
+	 * @param month
+	 * @return entry, RatingHistory.NONE if the player had not played by the month
+	 * @throws IllegalArgumentException if there is no history, or it was enabled after
+	 * the month and the player's state then was not recorded
+	 */
+	public int findHistory(int player, double month)
+	{
+		if (history == null) {
+			throw new IllegalArgumentException("Month " + month + " is before the last month played by player " + player + " and there is no history");
+		}
+		int entry = history.find(player, (int) month);
+		// players seeded when the history was enabled may have played before their first entry
+		if (entry == RatingHistory.NONE && history.getFirstMonth(player) != RatingHistory.NONE && history.getFirstMonth(player) <= historyStart) {
+			throw new IllegalArgumentException("Month " + month + " of player " + player + " is before the history was enabled");
+		}
+		return entry;
+	}
+
+	/**
+	 * @return the history, null if not enabled
+	 */
+	public RatingHistory getHistory()
+	{
+		return history;
+	}
+
+	/**
+	 * Write the columns through to persistent storage
+	 */
+	public void force()
+	{
+		rating.force();
+		rd.force();
+		tmpRating.force();
+		tmpRd.force();
+		monthLastPlayed.force();
+	}
+
+	/**
+	 * Close all columns (releases files and off-heap memory), the table must not be
+	 * used afterwards
+	 *
+	 * @throws IOException - the first failure, the other columns are still closed
+	 */
+	public void close()
+		throws IOException
+	{
+		IOException failure = null;
+		for (DoubleColumn column : new DoubleColumn[] {rating, rd, tmpRating, tmpRd, monthLastPlayed})
+		{
+			try {
+				column.close();
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * @return min, max, mean and variance of the ratings of all players, null if not enabled
+	 */
+	public RunningStats getRatingStats()
+	{
+		return ratingStats;
+	}
+
+	/**
+	 * @return min, max, mean and variance of the rds of all players, null if not enabled
+	 */
+	public RunningStats getRdStats()
+	{
+		return rdStats;
+	}
+
+	public double getRating(int player)
+	{
+		return rating.get(player);
+	}
+	public double getRd(int player)
+	{
+		return rd.get(player);
+	}
+	public double getTmpRating(int player)
+	{
+		return tmpRating.get(player);
+	}
+	public double getTmpRd(int player)
+	{
+		return tmpRd.get(player);
+	}
+	public double getMonthLastPlayed(int player)
+	{
+		return monthLastPlayed.get(player);
+	}
+
+	/**
+	 * Overwrite the state of a player (e.g. when restoring a snapshot)
+	 * @param player
+	 * @param newRating
+	 * @param newRd
+	 * @param newMonthLastPlayed - NaN if never played
+	 */
+	public void set(int player, double newRating, double newRd, double newMonthLastPlayed)
+	{
+		rating.set(player, newRating);
+		rd.set(player, newRd);
+		monthLastPlayed.set(player, newMonthLastPlayed);
+		if (ratingStats != null) {
+			ratingStats.set(player, newRating);
+			rdStats.set(player, newRd);
+		}
+		if (leaderboard != null) {
+			leaderboard.set(player, newRating);
+		}
+	}
+
+	/**
+	 * Overwrite players [0, n) in bulk (e.g. when restoring a snapshot), the table
+	 * grows to n players if smaller
+	 * @param n
+	 * @param newRatings - n values, the buffers are not moved
+	 * @param newRds - n values
+	 * @param newMonthsLastPlayed - n values, NaN if never played
+	 */
+	public void load(int n, DoubleBuffer newRatings, DoubleBuffer newRds, DoubleBuffer newMonthsLastPlayed)
+	{
+		if (n > size)
+		{
+			// every new row is overwritten below
+			tmpRating.setSize(n);
+			tmpRd.setSize(n);
+			rating.setSize(n);
+			rd.setSize(n);
+			monthLastPlayed.setSize(n);
+			if (leaderboard != null) {
+				leaderboard.grow(n, defaultRating);
+			}
+			size = n;
+		}
+		rating.put(0, newRatings);
+		rd.put(0, newRds);
+		monthLastPlayed.put(0, newMonthsLastPlayed);
+		if (ratingStats != null) {
+			ratingStats.load(rating, size);
+			rdStats.load(rd, size);
+		}
+		if (leaderboard != null) {
+			for (int i = 0; i < n; i++) {
+				leaderboard.set(i, rating.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Set the pending rating and rd for a player, applied with {@link #apply(int, int)}
+	 * @param player
+	 * @param newRating
+	 * @param newRd
+	 */
+	public void setTmp(int player, double newRating, double newRd)
+	{
+		tmpRating.set(player, newRating);
+		tmpRd.set(player, newRd);
+	}
+
+	/**
+	 * Transfer the pending rating and rd and record the month played, updates the
+	 * statistics so must not be called concurrently
+	 * @param player
+	 * @param month
+	 */
+	public void apply(int player, int month)
+	{
+		double newRating = tmpRating.get(player);
+		double newRd = tmpRd.get(player);
+		rating.set(player, newRating);
+		rd.set(player, newRd);
+		monthLastPlayed.set(player, month);
+		if (ratingStats != null) {
+			ratingStats.set(player, newRating);
+			rdStats.set(player, newRd);
+		}
+		if (leaderboard != null) {
+			leaderboard.set(player, newRating);
+		}
+		if (history != null) {
+			history.add(player, month, newRating, newRd);
+		}
+	}
+
+	/**
+	 * Rating periods to decay the rd over when the player next plays in a month, read only
+	 * (e.g., if the player competed in the most recent rating period, t=1)
+	 *
+	 * @param player
+	 * @param month - not before the last month played
+	 * @return 1 if the player has not played or played in the month
+	 * @throws IllegalArgumentException if the month is before the last month played
+	 */
+	public double getNumTimePeriodsSinceLastGame(int player, double month)
+	{
+		double last = monthLastPlayed.get(player);
+		if (Double.isNaN(last)) {
+			return 1;
+		}
+		if (month < last) {
+			throw new IllegalArgumentException("Month " + month + " is before the last month played by player " + player + ": " + last);
+		}
+		return 1+(month-last);
+	}
+}
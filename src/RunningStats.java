@@ -0,0 +1,186 @@
+import java.util.Arrays;
+
+/**
+ * Summary statistics of a column of values that change one at a time.
+ * <br />
+ * Mean and variance come from running sums (of the offsets from a reference value,
+ * which keeps the sums small), min and max from a pair of tournament trees over the
+ * values. Replacing a value is O(log n) and reading any statistic is O(1), so the
+ * summary never needs a scan of the column.
+ * <br />
+ * Not thread safe, updates must come from one thread at a time.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class RunningStats
+{
+	private final double reference;
+
+	private int size;
+	private double sum;
+	private double sumSquares;
+
+	// leaves at [capacity, 2*capacity), node i holds the min (max) of nodes 2i and 2i+1
+	private int capacity = 1;
+	private double [] minTree = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+	private double [] maxTree = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+	/**
+	 * @param aReference - typical value (e.g. the default), sums are kept relative to it
+	 */
+	public RunningStats(double aReference)
+	{
+		reference = aReference;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Append values [size, numValues) all with the same value
+	 * @param numValues
+	 * @param value
+	 */
+	public void grow(int numValues, double value)
+	{
+		if (numValues <= size) {
+			return;
+		}
+		boolean rebuild = false;
+		if (numValues > capacity) {
+			rebuild = true;
+			int newCapacity = capacity;
+			while (newCapacity < numValues) {
+				newCapacity <<= 1;
+			}
+			double [] newMin = new double[2*newCapacity];
+			double [] newMax = new double[2*newCapacity];
+			Arrays.fill(newMin, Double.POSITIVE_INFINITY);
+			Arrays.fill(newMax, Double.NEGATIVE_INFINITY);
+			System.arraycopy(minTree, capacity, newMin, newCapacity, size);
+			System.arraycopy(maxTree, capacity, newMax, newCapacity, size);
+			minTree = newMin;
+			maxTree = newMax;
+			capacity = newCapacity;
+		}
+		double offset = value - reference;
+		int added = numValues - size;
+		sum += added * offset;
+		sumSquares += added * offset * offset;
+		Arrays.fill(minTree, capacity+size, capacity+numValues, value);
+		Arrays.fill(maxTree, capacity+size, capacity+numValues, value);
+		int oldSize = size;
+		size = numValues;
+		if (!rebuild && added < capacity/Integer.numberOfTrailingZeros(capacity<<1)) {
+			// a few values (e.g. players arriving one at a time), O(added log capacity)
+			for (int i = oldSize; i < numValues; i++) {
+				for (int node = (capacity+i) >>> 1; node >= 1; node >>>= 1) {
+					minTree[node] = Math.min(minTree[2*node], minTree[2*node+1]);
+					maxTree[node] = Math.max(maxTree[2*node], maxTree[2*node+1]);
+				}
+			}
+			return;
+		}
+		// rebuild the inner nodes, O(capacity)
+		for (int i = capacity-1; i >= 1; i--) {
+			minTree[i] = Math.min(minTree[2*i], minTree[2*i+1]);
+			maxTree[i] = Math.max(maxTree[2*i], maxTree[2*i+1]);
+		}
+	}
+
+	/**
+	 * Replace all values with the first n of a column, O(n)
+	 * @param values
+	 * @param n
+	 */
+	public void load(DoubleColumn values, int n)
+	{
+		capacity = 1;
+		while (capacity < n) {
+			capacity <<= 1;
+		}
+		minTree = new double[2*capacity];
+		maxTree = new double[2*capacity];
+		Arrays.fill(minTree, Double.POSITIVE_INFINITY);
+		Arrays.fill(maxTree, Double.NEGATIVE_INFINITY);
+		sum = 0.0;
+		sumSquares = 0.0;
+		for (int i = 0; i < n; i++)
+		{
+			double value = values.get(i);
+			double offset = value - reference;
+			sum += offset;
+			sumSquares += offset * offset;
+			minTree[capacity+i] = value;
+			maxTree[capacity+i] = value;
+		}
+		size = n;
+		for (int i = capacity-1; i >= 1; i--) {
+			minTree[i] = Math.min(minTree[2*i], minTree[2*i+1]);
+			maxTree[i] = Math.max(maxTree[2*i], maxTree[2*i+1]);
+		}
+	}
+
+	/**
+	 * Replace a value
+	 * @param index
+	 * @param value
+	 */
+	public void set(int index, double value)
+	{
+		int node = capacity + index;
+		double oldOffset = minTree[node] - reference;
+		double newOffset = value - reference;
+		sum += newOffset - oldOffset;
+		sumSquares += newOffset*newOffset - oldOffset*oldOffset;
+
+		minTree[node] = value;
+		maxTree[node] = value;
+		for (node >>>= 1; node >= 1; node >>>= 1) {
+			minTree[node] = Math.min(minTree[2*node], minTree[2*node+1]);
+			maxTree[node] = Math.max(maxTree[2*node], maxTree[2*node+1]);
+		}
+	}
+
+	public double getMin()
+	{
+		return (size == 0) ? Double.NaN : minTree[1];
+	}
+
+	public double getMax()
+	{
+		return (size == 0) ? Double.NaN : maxTree[1];
+	}
+
+	public double getMean()
+	{
+		return (size == 0) ? Double.NaN : reference + sum/size;
+	}
+
+	/**
+	 * @return population variance
+	 */
+	public double getVariance()
+	{
+		if (size == 0) {
+			return Double.NaN;
+		}
+		double mean = sum / size;
+		return Math.max(0.0, sumSquares/size - mean*mean);
+	}
+
+	public double getStdDev()
+	{
+		return Math.sqrt(getVariance());
+	}
+
+	@Override
+	public String toString()
+	{
+		return "min=" + getMin() + ", avg=" + getMean() + ", max=" + getMax() + ", sd=" + getStdDev();
+	}
+}
@@ -0,0 +1,256 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic game logs in the competition format, so benchmarks and
+ * experiments can run offline at any scale.
+ * <br />
+ * Each player has a hidden strength that drifts a little each month and an activity
+ * weight (log-normal, a few players play a lot). Half of the players are there from
+ * the first month, the rest join evenly over the months. A game picks white and black
+ * by activity among the players who have joined and draws the result from the logistic
+ * expectation of the strength difference (plus a small white advantage), with a share
+ * of the expected score given as draws.
+ * <br />
+ * Player ids are 1..players and months 1..months. The same parameters and seed always
+ * give the same games in the same order.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class SyntheticGames
+{
+	public final static long DEFAULT_SEED = 1;
+
+	// spread of the hidden strengths and their drift per month (rating points)
+	public final static double STRENGTH_SD = 300.0;
+	public final static double DRIFT_SD = 10.0;
+	public final static double WHITE_ADVANTAGE = 30.0;
+	// sd of log(activity)
+	public final static double ACTIVITY_SD = 0.75;
+	// fraction of the closest possible contest's expected score that is drawn
+	public final static double DRAW_RATE = 0.6;
+
+	private final int numPlayers;
+	private final int numMonths;
+	private final double gamesPerPlayer;
+	private final long seed;
+
+	/**
+	 * @param players - number of players
+	 * @param months - number of months
+	 * @param aGamesPerPlayer - average games per player per month, each game counts for both players
+	 * @param aSeed
+	 */
+	public SyntheticGames(int players, int months, double aGamesPerPlayer, long aSeed)
+	{
+		if (players < 2 || months < 1 || aGamesPerPlayer < 0) {
+			throw new IllegalArgumentException("Need at least 2 players, 1 month and games per player >= 0");
+		}
+		numPlayers = players;
+		numMonths = months;
+		gamesPerPlayer = aGamesPerPlayer;
+		seed = aSeed;
+	}
+
+	public int getNumPlayers()
+	{
+		return numPlayers;
+	}
+
+	public int getNumMonths()
+	{
+		return numMonths;
+	}
+
+	public int getGamesPerMonth()
+	{
+		return (int) Math.round(numPlayers * gamesPerPlayer / 2.0);
+	}
+
+	public long getNumGames()
+	{
+		return (long) getGamesPerMonth() * numMonths;
+	}
+
+	/**
+	 * First month index (0 based) a player can play in
+	 * @param player - 0 based
+	 * @return
+	 */
+	protected int getJoinMonth(int player)
+	{
+		int founders = numPlayers - numPlayers/2;
+		if (player < founders) {
+			return 0;
+		}
+		return (int) ((long) (player - founders) * numMonths / (numPlayers - founders));
+	}
+
+	/**
+	 * Stream the games in month order
+	 *
+	 * @param handler - receives player ids and scores
+	 * @return number of games
+	 */
+	public long generate(GameLogReader.Handler handler)
+	{
+		Random r = new Random(seed);
+		double [] strength = new double[numPlayers];
+		double [] cumulative = new double[numPlayers];
+		double total = 0.0;
+		for (int i = 0; i < numPlayers; i++) {
+			strength[i] = STRENGTH_SD * r.nextGaussian();
+			total += Math.exp(ACTIVITY_SD * r.nextGaussian());
+			cumulative[i] = total;
+		}
+
+		int gamesPerMonth = getGamesPerMonth();
+		int eligible = 0;
+		long count = 0;
+		for (int m = 0; m < numMonths; m++)
+		{
+			// players join in index order, so those who can play are a prefix
+			while (eligible < numPlayers && getJoinMonth(eligible) <= m) {
+				eligible++;
+			}
+			if (m > 0) {
+				for (int i = 0; i < eligible; i++) {
+					strength[i] += DRIFT_SD * r.nextGaussian();
+				}
+			}
+			double weight = cumulative[eligible-1];
+			for (int i = 0; i < gamesPerMonth; i++)
+			{
+				int white = pick(cumulative, eligible, weight * r.nextDouble());
+				int black;
+				do {
+					black = pick(cumulative, eligible, weight * r.nextDouble());
+				} while (black == white);
+
+				double e = 1.0 / (1.0 + Math.pow(10.0, -(strength[white]-strength[black]+WHITE_ADVANTAGE)/400.0));
+				// draws take from both sides equally, the expected score stays e
+				double draw = DRAW_RATE * 2.0 * Math.min(e, 1.0-e);
+				double u = r.nextDouble();
+				double score = (u < e - draw/2.0) ? 1.0 : (u < e + draw/2.0) ? 0.5 : 0.0;
+				handler.game(m+1, white+1, black+1, score);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param cumulative - running total of the activity weights
+	 * @param n - number of players to pick from
+	 * @param target - in [0, cumulative[n-1])
+	 * @return first player whose running total exceeds the target
+	 */
+	private static int pick(double [] cumulative, int n, double target)
+	{
+		int low = 0;
+		int high = n - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulative[mid] <= target) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @param players - index to map player ids through, new players are added to it
+	 * @return the games in memory
+	 */
+	public GameStore build(PlayerIndex players)
+	{
+		long numGames = getNumGames();
+		if (numGames > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many games for one store: " + numGames);
+		}
+		GameStore.Builder builder = new GameStore.Builder(players, (int) numGames);
+		generate(builder);
+		return builder.build();
+	}
+
+	/**
+	 * Write the games as csv, streamed (nothing is held in memory)
+	 *
+	 * @param file
+	 * @param withScores - false for a test file (month, white, black)
+	 * @return bytes written
+	 * @throws IOException
+	 */
+	public long writeCsv(File file, final boolean withScores)
+		throws IOException
+	{
+		final GameLogWriter writer = new GameLogWriter(file);
+		try {
+			writer.write(withScores ? GlickoSystemStandalone.FIRST_LINE : "\"Month #\",\"White Player #\",\"Black Player #\"").write('\n');
+			generate(new GameLogReader.Handler() {
+				public void game(int month, int white, int black, double score) {
+					try {
+						writer.write(month).write(',').write(white).write(',').write(black);
+						if (!withScores) {
+							writer.write('\n');
+						} else if (score == 0.5) {
+							writer.write(",0.5\n");
+						} else {
+							writer.write(',').write((long) score).write('\n');
+						}
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			writer.close();
+		}
+		return writer.getBytesWritten();
+	}
+
+	/**
+	 * Write the games as a binary log (see {@link BinaryGameLog}), built in memory first
+	 *
+	 * @param file
+	 * @return bytes written
+	 * @throws IOException
+	 */
+	public long writeBinary(File file)
+		throws IOException
+	{
+		return BinaryGameLog.write(build(new PlayerIndex()), file);
+	}
+
+	/**
+	 * Usage: SyntheticGames players months gamesPerPlayer [seed] out.csv|out.bin
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 4) {
+			System.err.println("Usage: SyntheticGames players months gamesPerPlayer [seed] out.csv|out.bin");
+			System.exit(1);
+		}
+		int players = Integer.parseInt(args[0]);
+		int months = Integer.parseInt(args[1]);
+		double gamesPerPlayer = Double.parseDouble(args[2]);
+		long seed = (args.length > 4) ? Long.parseLong(args[3]) : DEFAULT_SEED;
+		File out = new File(args[args.length-1]);
+
+		SyntheticGames games = new SyntheticGames(players, months, gamesPerPlayer, seed);
+		long start = System.currentTimeMillis();
+		long bytes = out.getName().endsWith(".bin") ? games.writeBinary(out) : games.writeCsv(out, true);
+		System.out.println("Wrote " + games.getNumGames() + " games (" + players + " players, " + months +
+				" months) to " + out + ": " + bytes + " bytes in " + (System.currentTimeMillis()-start) + " ms");
+	}
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+/**
+ * Splits the ordered games of a month into conflict free waves for per-game updates.
+ * <br />
+ * A game goes in the wave after the last wave that holds a game of either of its
+ * players, so no player appears twice in a wave and each game stays after every
+ * earlier game involving the same players. Running the waves in order (the games
+ * within a wave in any order, or at the same time) gives exactly the same ratings
+ * as processing the games one at a time in month order.
+ * <br />
+ * Holds reusable scratch space, one schedule per thread.
+ * <br />
+ * (C) Copyright 2010 Jason Brownlee. Some Rights Reserved.
+ * This work is licensed under a Creative Commons Attribution-Noncommercial-Share Alike 2.5 Australia License.
+ * http://creativecommons.org/licenses/by-nc-sa/2.5/au/
+ */
+public class WaveSchedule
+{
+	private int [] lastWave = new int[0]; // per player, 1 + last wave in the current month, 0 if none
+	private int [] waveOfGame = new int[0];
+	private int [] waveOffsets = new int[1];
+	private int [] games = new int[0];
+	private int numWaves;
+
+	/**
+	 * Build the waves for a month
+	 *
+	 * @param records
+	 * @param monthIndex
+	 */
+	public void schedule(GameStore records, int monthIndex)
+	{
+		int start = records.monthStart(monthIndex);
+		int end = records.monthEnd(monthIndex);
+		int n = end-start;
+		if (lastWave.length < records.getPlayerIndex().size()) {
+			lastWave = new int[records.getPlayerIndex().size()];
+		}
+		if (waveOfGame.length < n) {
+			waveOfGame = new int[n];
+			games = new int[n];
+		}
+
+		// assign waves
+		numWaves = 0;
+		for (int i = start; i < end; i++) {
+			int white = records.getWhite(i);
+			int black = records.getBlack(i);
+			int wave = Math.max(lastWave[white], lastWave[black]);
+			lastWave[white] = lastWave[black] = wave+1;
+			waveOfGame[i-start] = wave;
+			numWaves = Math.max(numWaves, wave+1);
+		}
+
+		// counting sort the games by wave, keeping month order within a wave
+		if (waveOffsets.length < numWaves+1) {
+			waveOffsets = new int[numWaves+1];
+		}
+		Arrays.fill(waveOffsets, 0, numWaves+1, 0);
+		for (int i = 0; i < n; i++) {
+			waveOffsets[waveOfGame[i]+1]++;
+		}
+		for (int w = 0; w < numWaves; w++) {
+			waveOffsets[w+1] += waveOffsets[w];
+		}
+		for (int i = 0; i < n; i++) {
+			games[waveOffsets[waveOfGame[i]]++] = start+i;
+		}
+		// shift the offsets back to wave starts
+		for (int w = numWaves; w > 0; w--) {
+			waveOffsets[w] = waveOffsets[w-1];
+		}
+		waveOffsets[0] = 0;
+
+		// reset scratch for the next month
+		for (int i = start; i < end; i++) {
+			lastWave[records.getWhite(i)] = 0;
+			lastWave[records.getBlack(i)] = 0;
+		}
+	}
+
+	public int numWaves()
+	{
+		return numWaves;
+	}
+	public int waveStart(int wave)
+	{
+		return waveOffsets[wave];
+	}
+	public int waveEnd(int wave)
+	{
+		return waveOffsets[wave+1];
+	}
+	/**
+	 * @param position - between waveStart and waveEnd of a wave
+	 * @return index of the game in the store
+	 */
+	public int getGame(int position)
+	{
+		return games[position];
+	}
+}